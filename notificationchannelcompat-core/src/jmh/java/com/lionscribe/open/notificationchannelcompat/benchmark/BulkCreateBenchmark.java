@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.benchmark;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating all groups and channels of an app at once, as done at every app start: into an empty
+ * store, and again into a store that already has them, which must write nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BulkCreateBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int channelCount;
+
+    private List<ChannelRecord> _channels;
+    private List<GroupRecord> _groups;
+    private ChannelCatalog _emptyCatalog;
+    private ChannelCatalog _fullCatalog;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        _channels = ChannelFixtures.channels(channelCount);
+        _groups = ChannelFixtures.groups(channelCount);
+        InMemoryChannelStore store = new InMemoryChannelStore();
+        ChannelFixtures.fill(store, channelCount);
+        _fullCatalog = new ChannelCatalog(store);
+        _fullCatalog.preload();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        _emptyCatalog = new ChannelCatalog(new InMemoryChannelStore());
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() {
+        _emptyCatalog.close();
+    }
+
+    @Benchmark
+    public ChannelCatalog createAll() {
+        _emptyCatalog.createGroups(_groups);
+        _emptyCatalog.createChannels(_channels);
+        return _emptyCatalog;
+    }
+
+    @Benchmark
+    public ChannelCatalog createUnchanged() {
+        _fullCatalog.createGroups(_groups);
+        _fullCatalog.createChannels(_channels);
+        return _fullCatalog;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.benchmark;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Channels and groups shaped like those of a real app: a handful of channels per account group,
+ * with names, descriptions, sounds and vibration patterns.
+ */
+final class ChannelFixtures {
+    static final int CHANNELS_PER_GROUP = 5;
+
+    private ChannelFixtures() {
+    }
+
+    static String channelId(int index) {
+        return "channel_" + index;
+    }
+
+    static String groupId(int index) {
+        return "account_" + (index / CHANNELS_PER_GROUP);
+    }
+
+    static List<ChannelRecord> channels(int count) {
+        List<ChannelRecord> channels = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ChannelRecord channel = new ChannelRecord(channelId(i));
+            channel.name = "Channel " + i;
+            channel.description = "Notifications of kind " + (i % CHANNELS_PER_GROUP);
+            channel.importance = 2 + i % 3;
+            channel.sound = "content://settings/system/notification_sound";
+            channel.vibrationEnabled = i % 2 == 0;
+            channel.vibrationPattern = new long[]{0, 250, 250, 250};
+            channel.lights = true;
+            channel.lightColor = 0xFF00FF00;
+            channel.group = groupId(i);
+            channels.add(channel);
+        }
+        return channels;
+    }
+
+    static List<GroupRecord> groups(int channelCount) {
+        int count = (channelCount + CHANNELS_PER_GROUP - 1) / CHANNELS_PER_GROUP;
+        List<GroupRecord> groups = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            GroupRecord group = new GroupRecord(groupId(i * CHANNELS_PER_GROUP));
+            group.name = "Account " + i;
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    static void fill(ChannelStore store, int channelCount) {
+        ChannelStore.Transaction transaction = store.beginTransaction();
+        for (GroupRecord group : groups(channelCount))
+            transaction.putGroup(group);
+        for (ChannelRecord channel : channels(channelCount))
+            transaction.putChannel(channel);
+        transaction.commit();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.benchmark;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelDecision;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The decision applyChannel makes before touching the notification: whether the switch, the
+ * channel and its group allow it to be shown.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecisionBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int channelCount;
+
+    private ChannelCatalog _catalog;
+    private ChannelRecord _channel;
+    private GroupRecord _group;
+    private int _next;
+
+    @Setup
+    public void setUp() {
+        InMemoryChannelStore store = new InMemoryChannelStore();
+        ChannelFixtures.fill(store, channelCount);
+        _catalog = new ChannelCatalog(store);
+        _catalog.preload();
+        _channel = _catalog.getChannel(ChannelFixtures.channelId(0));
+        _group = _catalog.getGroup(_channel.group);
+    }
+
+    @TearDown
+    public void tearDown() {
+        _catalog.close();
+    }
+
+    @Benchmark
+    public int catalogBlockReason() {
+        if (++_next >= channelCount)
+            _next = 0;
+        return _catalog.getBlockReason(ChannelFixtures.channelId(_next));
+    }
+
+    @Benchmark
+    public int unknownChannel() {
+        return _catalog.getBlockReason("no_such_channel");
+    }
+
+    @Benchmark
+    public int decisionOnly() {
+        return ChannelDecision.blockReason(true, _channel, _group);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.benchmark;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.store.BinaryFileChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up a single channel, as getNotificationChannel does: from a warm catalog, and as the
+ * first lookup after process start, from the binary store file with and without mapped index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetChannelBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int channelCount;
+
+    private ChannelCatalog _catalog;
+    private File _file;
+    private int _next;
+
+    @Setup
+    public void setUp() throws IOException {
+        InMemoryChannelStore store = new InMemoryChannelStore();
+        ChannelFixtures.fill(store, channelCount);
+        _catalog = new ChannelCatalog(store);
+        _catalog.preload();
+
+        _file = File.createTempFile("channels", ".bin");
+        _file.delete();
+        ChannelFixtures.fill(new BinaryFileChannelStore(_file, true), channelCount);
+    }
+
+    @TearDown
+    public void tearDown() {
+        _catalog.close();
+        _file.delete();
+        new File(_file.getPath() + ".idx").delete();
+    }
+
+    private String nextId() {
+        if (++_next >= channelCount)
+            _next = 0;
+        return ChannelFixtures.channelId(_next);
+    }
+
+    @Benchmark
+    public ChannelRecord warm() {
+        return _catalog.getChannel(nextId());
+    }
+
+    @Benchmark
+    public ChannelRecord coldBinaryFile() {
+        ChannelCatalog catalog = new ChannelCatalog(new BinaryFileChannelStore(_file, false));
+        ChannelRecord channel = catalog.getChannel(nextId());
+        catalog.close();
+        return channel;
+    }
+
+    @Benchmark
+    public ChannelRecord coldMappedIndex() {
+        ChannelCatalog catalog = new ChannelCatalog(new BinaryFileChannelStore(_file, true));
+        ChannelRecord channel = catalog.getChannel(nextId());
+        catalog.close();
+        return channel;
+    }
+}
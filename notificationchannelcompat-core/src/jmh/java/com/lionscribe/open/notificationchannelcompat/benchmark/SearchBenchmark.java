@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.benchmark;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelSearchIndex;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching the channels as the settings screen does: the first search, which builds the index,
+ * a search of the built index, and the first search after a channel was renamed, which indexes
+ * that channel again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    private static final String QUERY = "account 12";
+
+    @Param({"5000"})
+    public int channelCount;
+
+    private InMemoryChannelStore _store;
+    private ChannelCatalog _catalog;
+    private ChannelSearchIndex _index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _store = new InMemoryChannelStore();
+        ChannelFixtures.fill(_store, channelCount);
+        _catalog = new ChannelCatalog(_store);
+        _catalog.preload();
+        _index = new ChannelSearchIndex(_catalog);
+        _index.search(QUERY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _index.close();
+        _catalog.close();
+    }
+
+    /**
+     * Renames a channel before each invocation, so that the search has it to index again.
+     */
+    @State(Scope.Benchmark)
+    public static class RenamedChannel {
+        private int _next;
+        private boolean _renamed;
+
+        @Setup(Level.Invocation)
+        public void rename(SearchBenchmark benchmark) {
+            if (++_next >= benchmark.channelCount) {
+                _next = 0;
+                _renamed = !_renamed;
+            }
+            ChannelRecord channel = benchmark._catalog.getChannel(ChannelFixtures.channelId(_next)).copy();
+            channel.name = (_renamed ? "Renamed " : "Channel ") + _next;
+            benchmark._store.beginTransaction().putChannel(channel).commit();
+        }
+    }
+
+    @Benchmark
+    public Set<String> firstBuild() {
+        ChannelSearchIndex index = new ChannelSearchIndex(_catalog);
+        Set<String> result = index.search(QUERY);
+        index.close();
+        return result;
+    }
+
+    @Benchmark
+    public Set<String> warmSearch() {
+        return _index.search(QUERY);
+    }
+
+    @Benchmark
+    public Set<String> reindexAfterChange(RenamedChannel renamedChannel) {
+        return _index.search(QUERY);
+    }
+}
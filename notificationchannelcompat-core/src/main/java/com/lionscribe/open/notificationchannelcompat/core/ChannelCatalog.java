@@ -0,0 +1,766 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory copy of the channel settings of a {@link ChannelStore}, together with the pre-Oreo
+ * rules for creating and deleting channels and groups.
+ * <p>
+ * Channels and groups are read from the store only once, and are then served from memory. Any
+ * change to the store invalidates the affected entry, which will be read again on next access.
+ * <p>
+ * Reads take no lock. The id sets are immutable snapshots that are swapped as a whole, and the
+ * caches are concurrent maps. A store-wide change drops all cached records, as some stores
+ * report a deletion or a restore only as such. A value read from the store is only cached if no
+ * invalidation happened while it was read, so a reader racing a writer can't bring back stale settings.
+ * Creates and deletes read, modify and write back under a lock, so they don't lose each
+ * other's changes.
+ * <p>
+ * Edits can be staged, so that a settings screen can put off the store write while every
+ * reader of the catalog sees the edits at once. Staged edits are laid over the cached records
+ * when read, until {@link #flushEdits} writes them.
+ */
+public final class ChannelCatalog {
+    private final ChannelStore _store;
+    private final Object _writeLock = new Object();
+    private final Object _stageLock = new Object();
+    private volatile ChannelEdits _stagedEdits; // never changed once set, guarded by _stageLock for writes
+    private final ConcurrentHashMap<String, ChannelRecord> _channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, GroupRecord> _groups = new ConcurrentHashMap<>();
+    private final AtomicLong _generation = new AtomicLong(); // bumped on every invalidation
+    private final CopyOnWriteArrayList<ChannelStore.OnChangeListener> _listeners = new CopyOnWriteArrayList<>();
+    private volatile Set<String> _channelIds;
+    private volatile Set<String> _groupIds;
+    private volatile Boolean _notificationsEnabled;
+    private volatile Map<String, Set<String>> _channelIdsByGroup; // null key for channels without group
+    private boolean _preloadStarted; // guarded by this
+    private volatile Thread _preloadThread;
+    private volatile CountDownLatch _preloadLatch;
+    private volatile ChannelMetrics _metrics;
+    private volatile ChannelTracer _tracer;
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private volatile long _lastPreloadMillis; // wall clock time the last preload finished, 0 if none
+    private volatile long _lastPreloadNanos;
+
+    private final ChannelStore.OnChangeListener _storeListener = new ChannelStore.OnChangeListener() {
+        @Override
+        public void onChannelChanged(String channelId) {
+            _generation.incrementAndGet();
+            _channelIds = null; // it may have been created or deleted
+            _channelIdsByGroup = null; // its group may have changed
+            _channels.remove(channelId);
+            for (ChannelStore.OnChangeListener listener : _listeners)
+                listener.onChannelChanged(channelId);
+        }
+
+        @Override
+        public void onGroupChanged(String groupId) {
+            _generation.incrementAndGet();
+            _groupIds = null;
+            _groups.remove(groupId);
+            for (ChannelStore.OnChangeListener listener : _listeners)
+                listener.onGroupChanged(groupId);
+        }
+
+        @Override
+        public void onStoreChanged() {
+            _generation.incrementAndGet();
+            _channelIds = null;
+            _groupIds = null;
+            _notificationsEnabled = null;
+            _channelIdsByGroup = null;
+            _channels.clear();
+            _groups.clear();
+            for (ChannelStore.OnChangeListener listener : _listeners)
+                listener.onStoreChanged();
+        }
+    };
+
+    public ChannelCatalog(ChannelStore store) {
+        _store = store;
+        _store.addOnChangeListener(_storeListener);
+    }
+
+    public ChannelStore getStore() {
+        return _store;
+    }
+
+    /**
+     * Stops following the changes of the store. The catalog must not be used afterwards.
+     */
+    public void close() {
+        _store.removeOnChangeListener(_storeListener);
+    }
+
+    /**
+     * Adds a listener that is called on every change of the store, after the catalog dropped
+     * the changed entries, so that anything the listener reads is already up to date.
+     */
+    public void addOnChangeListener(ChannelStore.OnChangeListener listener) {
+        _listeners.addIfAbsent(listener);
+    }
+
+    public void removeOnChangeListener(ChannelStore.OnChangeListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Sets the metrics that are told the timing of store reads, writes and preloads, or null
+     * for none. Nothing is timed while there are none.
+     */
+    public void setMetrics(ChannelMetrics metrics) {
+        _metrics = metrics;
+    }
+
+    public ChannelMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * Sets the tracer that gets a section around each store read and write, batch create and
+     * preload, or null for none.
+     */
+    public void setTracer(ChannelTracer tracer) {
+        _tracer = tracer;
+    }
+
+    public ChannelTracer getTracer() {
+        return _tracer;
+    }
+
+    public boolean isNotificationsEnabled() {
+        ChannelEdits staged = _stagedEdits;
+        if (staged != null && staged.getNotificationsEnabled() != null)
+            return staged.getNotificationsEnabled();
+        return isStoredNotificationsEnabled();
+    }
+
+    private boolean isStoredNotificationsEnabled() {
+        Boolean enabled = _notificationsEnabled;
+        if (enabled == null) {
+            awaitPreload();
+            long generation = _generation.get();
+            ChannelMetrics metrics = _metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_READ);
+            try {
+                enabled = _store.isNotificationsEnabled();
+            } finally {
+                endSection(tracer);
+            }
+            if (metrics != null)
+                metrics.onStoreRead(System.nanoTime() - start);
+            if (_generation.get() == generation)
+                _notificationsEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    /**
+     * Returns the ids of the existing channels. The returned set is an immutable snapshot.
+     */
+    public Set<String> getChannelIds() {
+        Set<String> ids = _channelIds;
+        if (ids == null) {
+            awaitPreload();
+            long generation = _generation.get();
+            ChannelMetrics metrics = _metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_READ);
+            try {
+                ids = _store.getChannelIds();
+            } finally {
+                endSection(tracer);
+            }
+            if (metrics != null)
+                metrics.onStoreRead(System.nanoTime() - start);
+            if (_generation.get() == generation)
+                _channelIds = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the existing groups. The returned set is an immutable snapshot.
+     */
+    public Set<String> getGroupIds() {
+        Set<String> ids = _groupIds;
+        if (ids == null) {
+            awaitPreload();
+            long generation = _generation.get();
+            ChannelMetrics metrics = _metrics;
+            long start = metrics == null ? 0 : System.nanoTime();
+            ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_READ);
+            try {
+                ids = _store.getGroupIds();
+            } finally {
+                endSection(tracer);
+            }
+            if (metrics != null)
+                metrics.onStoreRead(System.nanoTime() - start);
+            if (_generation.get() == generation)
+                _groupIds = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the existing channels of the group, or of the channels without group
+     * if groupId is null. The returned set is an immutable snapshot.
+     */
+    public Set<String> getChannelIdsOfGroup(String groupId) {
+        Set<String> ids = getChannelIdsByGroup().get(groupId);
+        return ids == null ? Collections.<String>emptySet() : ids;
+    }
+
+    /**
+     * Returns the ids of the existing channels by group id, with a null key for channels without
+     * group. The index is built in one pass over the channels, and dropped whenever a channel or
+     * the ids change. The returned map is an immutable snapshot.
+     */
+    public Map<String, Set<String>> getChannelIdsByGroup() {
+        Map<String, Set<String>> index = _channelIdsByGroup;
+        if (index == null) {
+            awaitPreload();
+            long generation = _generation.get();
+            HashMap<String, Set<String>> byGroup = new HashMap<>();
+            for (String channelId : getChannelIds()) {
+                ChannelRecord channel = getStoredChannel(channelId);
+                if (channel == null)
+                    continue;
+                Set<String> ids = byGroup.get(channel.group);
+                if (ids == null) {
+                    ids = new LinkedHashSet<>();
+                    byGroup.put(channel.group, ids);
+                }
+                ids.add(channelId);
+            }
+            for (Map.Entry<String, Set<String>> entry : byGroup.entrySet())
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            index = Collections.unmodifiableMap(byGroup);
+            if (_generation.get() == generation)
+                _channelIdsByGroup = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cached settings of an existing channel, with its staged edits, or null. The
+     * returned record is shared, and must not be modified.
+     */
+    public ChannelRecord getChannel(String channelId) {
+        ChannelRecord channel = getStoredChannel(channelId);
+        ChannelEdits staged = _stagedEdits;
+        return channel == null || staged == null ? channel : staged.applyTo(channel);
+    }
+
+    private ChannelRecord getStoredChannel(String channelId) {
+        ChannelRecord channel = _channels.get(channelId);
+        if (channel != null) {
+            Set<String> ids = _channelIds; // only if in memory, loading them may read the whole store
+            if (ids != null && !ids.contains(channelId)) {
+                _channels.remove(channelId, channel);
+                return null;
+            }
+            _hits.incrementAndGet();
+            return channel;
+        }
+        awaitPreload();
+        if ((channel = _channels.get(channelId)) != null)
+            return channel;
+        _misses.incrementAndGet();
+        long generation = _generation.get();
+        // Ask the store rather than loading all ids, it may be able to answer without reading everything
+        ChannelMetrics metrics = _metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_READ);
+        try {
+            Set<String> ids = _channelIds;
+            if (ids != null ? !ids.contains(channelId) : !_store.containsChannel(channelId))
+                channel = null;
+            else
+                channel = _store.readChannel(channelId);
+        } finally {
+            endSection(tracer);
+        }
+        if (metrics != null)
+            metrics.onStoreRead(System.nanoTime() - start);
+        if (channel == null)
+            return null;
+        return cache(_channels, channelId, channel, generation);
+    }
+
+    /**
+     * Returns the cached settings of an existing group, with its staged edits, or null. The
+     * returned record is shared, and must not be modified.
+     */
+    public GroupRecord getGroup(String groupId) {
+        GroupRecord group = getStoredGroup(groupId);
+        ChannelEdits staged = _stagedEdits;
+        return group == null || staged == null ? group : staged.applyTo(group);
+    }
+
+    private GroupRecord getStoredGroup(String groupId) {
+        GroupRecord group = _groups.get(groupId);
+        if (group != null) {
+            Set<String> ids = _groupIds;
+            if (ids != null && !ids.contains(groupId)) {
+                _groups.remove(groupId, group);
+                return null;
+            }
+            _hits.incrementAndGet();
+            return group;
+        }
+        awaitPreload();
+        if ((group = _groups.get(groupId)) != null)
+            return group;
+        _misses.incrementAndGet();
+        long generation = _generation.get();
+        ChannelMetrics metrics = _metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_READ);
+        try {
+            Set<String> ids = _groupIds;
+            if (ids != null ? !ids.contains(groupId) : !_store.containsGroup(groupId))
+                group = null;
+            else
+                group = _store.readGroup(groupId);
+        } finally {
+            endSection(tracer);
+        }
+        if (metrics != null)
+            metrics.onStoreRead(System.nanoTime() - start);
+        if (group == null)
+            return null;
+        return cache(_groups, groupId, group, generation);
+    }
+
+    /**
+     * Returns whether a notification may be posted to the channel, or why not. See
+     * {@link ChannelDecision#blockReason}.
+     */
+    public int getBlockReason(String channelId) {
+        ChannelRecord channel = getChannel(channelId);
+        GroupRecord group = channel == null || channel.group == null ? null : getGroup(channel.group);
+        return ChannelDecision.blockReason(isNotificationsEnabled(), channel, group);
+    }
+
+    /**
+     * Creates the groups, or renames the ones that exist. The enabled state of a group that was
+     * created before is kept. Nothing is written if none of the groups changed.
+     */
+    public void createGroups(List<GroupRecord> groups) {
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_CREATE_GROUPS);
+        try {
+            createGroupsLocked(groups);
+        } finally {
+            endSection(tracer);
+        }
+    }
+
+    private void createGroupsLocked(List<GroupRecord> groups) {
+        synchronized (_writeLock) {
+            ChannelStore.Transaction transaction = null;
+            for (GroupRecord group : groups) {
+                GroupRecord existing = getStoredGroup(group.id);
+                if (existing != null && equals(group.name, existing.name) && equals(group.description, existing.description))
+                    continue; // nothing changed
+                GroupRecord record = group.copy();
+                // Only a new group is read from the store, for the settings kept since it was deleted
+                GroupRecord stored = existing != null ? existing : _store.readGroup(group.id);
+                if (stored != null)
+                    record.enabled = stored.enabled; // we don't overwrite this setting, even if deleted from before
+                if (transaction == null)
+                    transaction = _store.beginTransaction();
+                transaction.putGroup(record);
+            }
+            if (transaction != null) // nothing changed, so nothing to write
+                apply(transaction);
+        }
+    }
+
+    /**
+     * Creates the channels. Existing channels only have their name and description updated.
+     * A channel listed twice is created as first listed. Nothing is written if none of the
+     * channels changed.
+     */
+    public void createChannels(List<ChannelRecord> channels) {
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_CREATE_CHANNELS);
+        try {
+            createChannelsLocked(channels);
+        } finally {
+            endSection(tracer);
+        }
+    }
+
+    private void createChannelsLocked(List<ChannelRecord> channels) {
+        synchronized (_writeLock) {
+            Set<String> channelIds = getChannelIds();
+            HashSet<String> newChannelIds = null;
+            ChannelStore.Transaction transaction = null;
+            for (ChannelRecord channel : channels) {
+                if (channelIds.contains(channel.id)) {
+                    ChannelRecord existing = getStoredChannel(channel.id);
+                    if (existing == null || (equals(channel.name, existing.name) && equals(channel.description, existing.description)))
+                        continue;
+                    ChannelRecord record = existing.copy();
+                    record.name = channel.name;
+                    record.description = channel.description;
+                    if (transaction == null)
+                        transaction = _store.beginTransaction();
+                    transaction.putChannel(record);
+                    // We do not change anything else once set
+                    continue;
+                }
+                if (newChannelIds == null)
+                    newChannelIds = new HashSet<>();
+                else if (newChannelIds.contains(channel.id))
+                    continue; // listed twice, first one wins
+                newChannelIds.add(channel.id);
+                if (transaction == null)
+                    transaction = _store.beginTransaction();
+                transaction.putChannel(channel);
+            }
+            if (transaction != null) // nothing changed, so nothing to write
+                apply(transaction);
+        }
+    }
+
+    /**
+     * Writes the edited user settings of the channels and groups in a single transaction, each
+     * over the current settings, so that only the edited fields change. Channels and groups
+     * deleted in the meantime are skipped, and nothing is written if no setting changed.
+     */
+    public void applyEdits(ChannelEdits edits) {
+        synchronized (_writeLock) {
+            ChannelStore.Transaction transaction = null;
+            Boolean notificationsEnabled = edits.getNotificationsEnabled();
+            if (notificationsEnabled != null && notificationsEnabled != isStoredNotificationsEnabled())
+                transaction = _store.beginTransaction().setNotificationsEnabled(notificationsEnabled);
+            for (String groupId : edits.getGroupIds()) {
+                GroupRecord existing = getStoredGroup(groupId);
+                if (existing == null)
+                    continue; // never bring back a group that was deleted
+                GroupRecord edited = edits.applyTo(existing);
+                if (edited.equals(existing))
+                    continue;
+                if (transaction == null)
+                    transaction = _store.beginTransaction();
+                transaction.putGroup(edited);
+            }
+            for (String channelId : edits.getChannelIds()) {
+                ChannelRecord existing = getStoredChannel(channelId);
+                if (existing == null)
+                    continue;
+                ChannelRecord edited = edits.applyTo(existing);
+                if (edited.equals(existing))
+                    continue;
+                if (transaction == null)
+                    transaction = _store.beginTransaction();
+                transaction.putChannel(edited);
+            }
+            if (transaction != null)
+                apply(transaction);
+        }
+    }
+
+    /**
+     * Adds the edits to the staged edits, which every read of the catalog sees from now on, and
+     * tells the listeners. They are written to the store by {@link #flushEdits}.
+     */
+    public void stageEdits(ChannelEdits edits) {
+        if (edits.isEmpty())
+            return;
+        synchronized (_stageLock) {
+            ChannelEdits staged = new ChannelEdits();
+            if (_stagedEdits != null)
+                staged.addAll(_stagedEdits);
+            _stagedEdits = staged.addAll(edits);
+        }
+        for (ChannelStore.OnChangeListener listener : _listeners) {
+            for (String groupId : edits.getGroupIds())
+                listener.onGroupChanged(groupId);
+            for (String channelId : edits.getChannelIds())
+                listener.onChannelChanged(channelId);
+            if (edits.getNotificationsEnabled() != null)
+                listener.onStoreChanged();
+        }
+    }
+
+    /**
+     * Writes the staged edits to the store, like {@link #applyEdits}. Edits staged while they
+     * are written stay staged for the next flush.
+     */
+    public void flushEdits() {
+        synchronized (_writeLock) {
+            ChannelEdits staged = _stagedEdits;
+            if (staged == null)
+                return;
+            applyEdits(staged);
+            synchronized (_stageLock) {
+                if (_stagedEdits == staged)
+                    _stagedEdits = null;
+            }
+        }
+    }
+
+    /**
+     * Deletes the channel. The store keeps its settings, which are reused if it is created again.
+     */
+    public void deleteChannel(String channelId) {
+        synchronized (_writeLock) {
+            if (getChannelIds().contains(channelId))
+                apply(_store.beginTransaction().removeChannel(channelId));
+        }
+    }
+
+    /**
+     * Deletes the group and all of its channels. The store keeps their settings, which are
+     * reused if they are created again.
+     */
+    public void deleteGroup(String groupId) {
+        synchronized (_writeLock) {
+            if (getGroupIds().contains(groupId)) {
+                ChannelStore.Transaction transaction = _store.beginTransaction();
+                // first delete all channels that have this id
+                for (String channelId : getChannelIdsOfGroup(groupId))
+                    transaction.removeChannel(channelId);
+                transaction.removeGroup(groupId);
+                apply(transaction);
+            }
+        }
+    }
+
+    /**
+     * Purges the settings of deleted channels and groups that the policy no longer keeps, and
+     * clears the group of existing channels whose group settings are purged now. A channel of a
+     * group that was never created keeps it, as the app may create the group later. Tombstones without a
+     * time, from before the store kept them, are stamped with the current time, so they expire
+     * by age from now on. May read the whole store, so call it in the background.
+     *
+     * @return the number of channels and groups purged
+     */
+    public int compact(ChannelRetentionPolicy policy) {
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_COMPACT);
+        try {
+            synchronized (_writeLock) {
+                long now = System.currentTimeMillis();
+                ChannelStore.Transaction transaction = _store.beginTransaction();
+                boolean changed = false;
+
+                Map<String, Long> groupTombstones = _store.getGroupTombstones();
+                Set<String> purgedGroups = expired(groupTombstones, policy, now);
+                for (Map.Entry<String, Long> entry : groupTombstones.entrySet()) {
+                    if (purgedGroups.contains(entry.getKey()))
+                        transaction.purgeGroup(entry.getKey());
+                    else if (entry.getValue() == 0)
+                        transaction.removeGroup(entry.getKey()); // stamps the tombstone
+                    else
+                        continue;
+                    changed = true;
+                }
+
+                Map<String, Long> channelTombstones = _store.getChannelTombstones();
+                Set<String> purgedChannels = expired(channelTombstones, policy, now);
+                for (Map.Entry<String, Long> entry : channelTombstones.entrySet()) {
+                    if (purgedChannels.contains(entry.getKey()))
+                        transaction.purgeChannel(entry.getKey());
+                    else if (entry.getValue() == 0)
+                        transaction.removeChannel(entry.getKey());
+                    else
+                        continue;
+                    changed = true;
+                }
+
+                // Existing channels whose group has no settings left would show without a group
+                for (String channelId : purgedGroups.isEmpty() ? Collections.<String>emptySet() : getChannelIds()) {
+                    ChannelRecord channel = getStoredChannel(channelId);
+                    if (channel == null || channel.group == null)
+                        continue;
+                    if (purgedGroups.contains(channel.group)) {
+                        ChannelRecord record = channel.copy();
+                        record.group = null;
+                        transaction.putChannel(record);
+                        changed = true;
+                    }
+                }
+
+                if (changed)
+                    apply(transaction);
+                return purgedGroups.size() + purgedChannels.size();
+            }
+        } finally {
+            endSection(tracer);
+        }
+    }
+
+    // Returns the ids of the tombstones the policy doesn't keep. Unknown times count as now.
+    private static Set<String> expired(Map<String, Long> tombstones, ChannelRetentionPolicy policy, final long now) {
+        if (tombstones.isEmpty() || policy.keepsAll())
+            return Collections.emptySet();
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(tombstones.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> obj1, Map.Entry<String, Long> obj2) {
+                long time1 = obj1.getValue() == 0 ? now : obj1.getValue();
+                long time2 = obj2.getValue() == 0 ? now : obj2.getValue();
+                return time1 > time2 ? -1 : time1 < time2 ? 1 : obj1.getKey().compareTo(obj2.getKey()); // newest first
+            }
+        });
+        HashSet<String> expired = new HashSet<>();
+        for (int rank = 0; rank < entries.size(); ++rank) {
+            Map.Entry<String, Long> entry = entries.get(rank);
+            if (!policy.keeps(entry.getValue() == 0 ? now : entry.getValue(), rank, now))
+                expired.add(entry.getKey());
+        }
+        return expired;
+    }
+
+    /**
+     * Reads the switch, all groups and all channels, so that later calls are served from
+     * memory. Only the first call does anything. While it runs, other threads that miss the
+     * cache wait for it, rather than reading the store themselves.
+     */
+    public void preload() {
+        CountDownLatch latch = new CountDownLatch(1);
+        synchronized (this) {
+            if (_preloadStarted)
+                return;
+            _preloadStarted = true;
+            _preloadThread = Thread.currentThread();
+            _preloadLatch = latch;
+        }
+        ChannelMetrics metrics = _metrics;
+        long start = System.nanoTime(); // always timed, it only runs once
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_PRELOAD);
+        try {
+            isStoredNotificationsEnabled();
+            for (String groupId : getGroupIds())
+                getStoredGroup(groupId);
+            for (String channelId : getChannelIds())
+                getStoredChannel(channelId);
+        } finally {
+            _preloadLatch = null;
+            _preloadThread = null;
+            latch.countDown();
+            endSection(tracer);
+        }
+        _lastPreloadNanos = System.nanoTime() - start;
+        _lastPreloadMillis = System.currentTimeMillis();
+        if (metrics != null)
+            metrics.onPreload(_lastPreloadNanos);
+    }
+
+    /**
+     * Adds the size and cache statistics of the catalog to out, under short, lower case and
+     * stable keys. Reads the ids of the store if they are not in memory yet.
+     */
+    public void collectDiagnostics(Map<String, Object> out) {
+        long hits = _hits.get();
+        long misses = _misses.get();
+        out.put("channels", getChannelIds().size());
+        out.put("groups", getGroupIds().size());
+        out.put("cached_channels", _channels.size());
+        out.put("cached_groups", _groups.size());
+        out.put("cache_hits", hits);
+        out.put("cache_misses", misses);
+        out.put("cache_hit_rate", hits + misses == 0 ? "n/a" : String.format(Locale.US, "%.4f", (double) hits / (hits + misses)));
+        out.put("generation", _generation.get());
+        out.put("preloaded", _lastPreloadMillis != 0);
+        if (_lastPreloadMillis != 0) {
+            out.put("last_preload_time_ms", _lastPreloadMillis);
+            out.put("last_preload_duration_us", _lastPreloadNanos / 1000);
+        }
+    }
+
+    private void awaitPreload() {
+        CountDownLatch latch = _preloadLatch;
+        if (latch == null || _preloadThread == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void apply(ChannelStore.Transaction transaction) {
+        ChannelMetrics metrics = _metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        ChannelTracer tracer = beginSection(ChannelTracer.SECTION_STORE_WRITE);
+        try {
+            transaction.apply();
+        } finally {
+            endSection(tracer);
+        }
+        if (metrics != null)
+            metrics.onStoreWrite(System.nanoTime() - start);
+    }
+
+    // Returns the tracer the section was begun on, or null if tracing is off
+    private ChannelTracer beginSection(String name) {
+        ChannelTracer tracer = _tracer;
+        if (tracer == null || !tracer.isEnabled())
+            return null;
+        tracer.beginSection(name);
+        return tracer;
+    }
+
+    private static void endSection(ChannelTracer tracer) {
+        if (tracer != null)
+            tracer.endSection();
+    }
+
+    // Caches the value, unless an invalidation happened since the generation was read
+    private <T> T cache(ConcurrentHashMap<String, T> map, String key, T value, long generation) {
+        T existing = map.putIfAbsent(key, value);
+        if (existing != null)
+            return existing;
+        if (_generation.get() != generation)
+            map.remove(key, value); // may be stale, so let the next read go to the store
+        return value;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
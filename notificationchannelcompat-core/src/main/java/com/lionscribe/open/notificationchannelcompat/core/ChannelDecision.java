@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+/**
+ * The platform independent part of deciding how a notification is delivered on a pre-Oreo
+ * channel.
+ */
+public final class ChannelDecision {
+    public static final int ALLOWED = 0;
+    public static final int BLOCKED_ALL = 1;
+    public static final int BLOCKED_CHANNEL = 2;
+    public static final int BLOCKED_GROUP = 3;
+    public static final int UNKNOWN_CHANNEL = 4;
+    /** The number of decision reasons, which are numbered from 0 */
+    public static final int REASON_COUNT = 5;
+
+    private static final String[] REASON_NAMES = {"allowed", "blocked_all", "blocked_channel", "blocked_group", "unknown_channel"};
+
+    // Values of NotificationManagerCompat
+    public static final int IMPORTANCE_NONE = 0;
+    public static final int IMPORTANCE_DEFAULT = 3;
+    public static final int IMPORTANCE_HIGH = 4;
+
+    private ChannelDecision() {
+    }
+
+    /**
+     * Returns whether a notification may be shown, or why not.
+     *
+     * @param channel the channel, or null if there is no such channel
+     * @param group   the group of the channel, or null if it has none
+     * @return {@link #ALLOWED}, or one of the BLOCKED_* reasons, or {@link #UNKNOWN_CHANNEL}
+     */
+    public static int blockReason(boolean notificationsEnabled, ChannelRecord channel, GroupRecord group) {
+        if (!notificationsEnabled)
+            return BLOCKED_ALL;
+        if (channel == null)
+            return UNKNOWN_CHANNEL;
+        if (!channel.enabled || channel.importance == IMPORTANCE_NONE)
+            return BLOCKED_CHANNEL;
+        if (group != null && !group.enabled)
+            return BLOCKED_GROUP;
+        return ALLOWED;
+    }
+
+    /**
+     * Returns a stable lower case name of the reason, for logs and diagnostics.
+     */
+    public static String reasonName(int reason) {
+        return reason >= 0 && reason < REASON_COUNT ? REASON_NAMES[reason] : "reason_" + reason;
+    }
+
+    /**
+     * Returns whether the channel plays its sound. Only default importance and up makes noise.
+     */
+    public static boolean playsSound(int importance) {
+        return importance >= IMPORTANCE_DEFAULT;
+    }
+
+    /**
+     * Returns the pre-Oreo Notification priority for the channel importance.
+     */
+    public static int priority(int importance) {
+        return importance - IMPORTANCE_DEFAULT; // NotificationManager.PRIORITY_DEFAULT = 3, while Notification.PRIORITY_DEFAULT = 0, so we have to deduct
+    }
+}
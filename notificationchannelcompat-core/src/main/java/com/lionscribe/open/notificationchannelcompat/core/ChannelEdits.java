@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes to single user settings of channels and groups, as made on a settings screen, that
+ * are collected and then written together by {@link ChannelCatalog#applyEdits}, or staged with
+ * {@link ChannelCatalog#stageEdits} to be seen at once and written later. Only the edited fields
+ * are written, over whatever the other fields are by then.
+ * <p>
+ * Not thread safe, edits are meant to be collected on a single thread.
+ */
+public final class ChannelEdits {
+    private static final int FIELD_ENABLED = 1;
+    private static final int FIELD_IMPORTANCE = 1 << 1;
+    private static final int FIELD_SOUND = 1 << 2;
+    private static final int FIELD_VIBRATION_ENABLED = 1 << 3;
+    private static final int FIELD_LIGHTS = 1 << 4;
+
+    private Boolean _notificationsEnabled;
+    private final LinkedHashMap<String, Boolean> _groupsEnabled = new LinkedHashMap<>();
+    private final LinkedHashMap<String, ChannelFields> _channels = new LinkedHashMap<>();
+
+    public ChannelEdits setNotificationsEnabled(boolean enabled) {
+        _notificationsEnabled = enabled;
+        return this;
+    }
+
+    public ChannelEdits setGroupEnabled(String groupId, boolean enabled) {
+        _groupsEnabled.put(groupId, enabled);
+        return this;
+    }
+
+    public ChannelEdits setChannelEnabled(String channelId, boolean enabled) {
+        ChannelFields fields = fields(channelId);
+        fields._mask |= FIELD_ENABLED;
+        fields._enabled = enabled;
+        return this;
+    }
+
+    public ChannelEdits setChannelImportance(String channelId, int importance) {
+        ChannelFields fields = fields(channelId);
+        fields._mask |= FIELD_IMPORTANCE;
+        fields._importance = importance;
+        return this;
+    }
+
+    /**
+     * @param sound the sound Uri as string, null or empty for no sound
+     */
+    public ChannelEdits setChannelSound(String channelId, String sound) {
+        ChannelFields fields = fields(channelId);
+        fields._mask |= FIELD_SOUND;
+        fields._sound = sound;
+        return this;
+    }
+
+    public ChannelEdits setChannelVibrationEnabled(String channelId, boolean enabled) {
+        ChannelFields fields = fields(channelId);
+        fields._mask |= FIELD_VIBRATION_ENABLED;
+        fields._vibrationEnabled = enabled;
+        return this;
+    }
+
+    public ChannelEdits setChannelLights(String channelId, boolean lights) {
+        ChannelFields fields = fields(channelId);
+        fields._mask |= FIELD_LIGHTS;
+        fields._lights = lights;
+        return this;
+    }
+
+    /**
+     * Adds the edits, which replace the edits already made to the same fields.
+     */
+    public ChannelEdits addAll(ChannelEdits edits) {
+        if (edits._notificationsEnabled != null)
+            _notificationsEnabled = edits._notificationsEnabled;
+        _groupsEnabled.putAll(edits._groupsEnabled);
+        for (Map.Entry<String, ChannelFields> entry : edits._channels.entrySet()) {
+            ChannelFields from = entry.getValue();
+            ChannelFields fields = fields(entry.getKey());
+            fields._mask |= from._mask;
+            if ((from._mask & FIELD_ENABLED) != 0)
+                fields._enabled = from._enabled;
+            if ((from._mask & FIELD_IMPORTANCE) != 0)
+                fields._importance = from._importance;
+            if ((from._mask & FIELD_SOUND) != 0)
+                fields._sound = from._sound;
+            if ((from._mask & FIELD_VIBRATION_ENABLED) != 0)
+                fields._vibrationEnabled = from._vibrationEnabled;
+            if ((from._mask & FIELD_LIGHTS) != 0)
+                fields._lights = from._lights;
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return _notificationsEnabled == null && _groupsEnabled.isEmpty() && _channels.isEmpty();
+    }
+
+    /**
+     * Returns the edited state of the notifications switch, or null if not edited.
+     */
+    public Boolean getNotificationsEnabled() {
+        return _notificationsEnabled;
+    }
+
+    /**
+     * Returns the ids of the edited groups, in order of first edit.
+     */
+    public Set<String> getGroupIds() {
+        return Collections.unmodifiableSet(_groupsEnabled.keySet());
+    }
+
+    /**
+     * Returns the ids of the edited channels, in order of first edit.
+     */
+    public Set<String> getChannelIds() {
+        return Collections.unmodifiableSet(_channels.keySet());
+    }
+
+    /**
+     * Returns a copy of the group with the edits made to it, or the group itself if there are
+     * none.
+     */
+    public GroupRecord applyTo(GroupRecord group) {
+        Boolean enabled = _groupsEnabled.get(group.id);
+        if (enabled == null)
+            return group;
+        GroupRecord edited = group.copy();
+        edited.enabled = enabled;
+        return edited;
+    }
+
+    /**
+     * Returns a copy of the channel with the edits made to it, or the channel itself if there
+     * are none.
+     */
+    public ChannelRecord applyTo(ChannelRecord channel) {
+        ChannelFields fields = _channels.get(channel.id);
+        if (fields == null)
+            return channel;
+        ChannelRecord edited = channel.copy();
+        if ((fields._mask & FIELD_ENABLED) != 0)
+            edited.enabled = fields._enabled;
+        if ((fields._mask & FIELD_IMPORTANCE) != 0)
+            edited.importance = fields._importance;
+        if ((fields._mask & FIELD_SOUND) != 0)
+            edited.sound = fields._sound;
+        if ((fields._mask & FIELD_VIBRATION_ENABLED) != 0)
+            edited.vibrationEnabled = fields._vibrationEnabled;
+        if ((fields._mask & FIELD_LIGHTS) != 0)
+            edited.lights = fields._lights;
+        return edited;
+    }
+
+    private ChannelFields fields(String channelId) {
+        ChannelFields fields = _channels.get(channelId);
+        if (fields == null) {
+            fields = new ChannelFields();
+            _channels.put(channelId, fields);
+        }
+        return fields;
+    }
+
+    private static final class ChannelFields {
+        int _mask; // FIELD_* of the edited fields
+        boolean _enabled;
+        int _importance;
+        String _sound;
+        boolean _vibrationEnabled;
+        boolean _lights;
+    }
+}
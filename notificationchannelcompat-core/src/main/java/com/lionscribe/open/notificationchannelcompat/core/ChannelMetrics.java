@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+/**
+ * Receives the outcome and timing of the library's pre-Oreo operations. Callbacks run on the
+ * calling thread, often while a notification is being posted, so they must be cheap and must
+ * not block. See {@link CountingChannelMetrics} for a lock-free implementation.
+ */
+public interface ChannelMetrics {
+    /**
+     * Called after each applyChannel decision.
+     *
+     * @param channelId    the channel the notification was posted to
+     * @param reason       {@link ChannelDecision#ALLOWED}, or why the notification is not shown
+     * @param elapsedNanos the time applyChannel took
+     */
+    void onDecision(String channelId, int reason, long elapsedNanos);
+
+    /**
+     * Called after settings were read from the store, on a cache miss.
+     */
+    void onStoreRead(long elapsedNanos);
+
+    /**
+     * Called after changes were handed to the store.
+     */
+    void onStoreWrite(long elapsedNanos);
+
+    /**
+     * Called after a preload read all settings into memory.
+     */
+    void onPreload(long elapsedNanos);
+}
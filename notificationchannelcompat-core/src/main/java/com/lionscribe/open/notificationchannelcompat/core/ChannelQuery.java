@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+
+/**
+ * What channels to list, and which page of them, for {@link ChannelQueryIndex#query}. A
+ * channel matches if it matches every criterion that was set, and matches are listed in
+ * order of id, so pages stay stable while channels come and go.
+ * <p>
+ * Not thread safe, a query is meant to be set up and run on a single thread.
+ */
+public final class ChannelQuery {
+    private boolean _groupSet;
+    private String _group;
+    private Boolean _enabled;
+    private int _minImportance = Integer.MIN_VALUE;
+    private int _maxImportance = Integer.MAX_VALUE;
+    private Boolean _hasSound;
+    private Boolean _vibrationEnabled;
+    private int _offset;
+    private int _limit = Integer.MAX_VALUE;
+
+    /**
+     * Only lists the channels of the group, or the channels without group if groupId is null.
+     */
+    public ChannelQuery setGroup(String groupId) {
+        _groupSet = true;
+        _group = groupId;
+        return this;
+    }
+
+    /**
+     * Only lists the channels that are, or are not, enabled by their own setting. The group
+     * and the notifications switch are not taken into account.
+     */
+    public ChannelQuery setEnabled(boolean enabled) {
+        _enabled = enabled;
+        return this;
+    }
+
+    /**
+     * Only lists the channels with an importance from min to max, both included.
+     */
+    public ChannelQuery setImportanceRange(int min, int max) {
+        _minImportance = min;
+        _maxImportance = max;
+        return this;
+    }
+
+    /**
+     * Only lists the channels that have, or don't have, a sound.
+     */
+    public ChannelQuery setHasSound(boolean hasSound) {
+        _hasSound = hasSound;
+        return this;
+    }
+
+    public ChannelQuery setVibrationEnabled(boolean enabled) {
+        _vibrationEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Skips the first offset matches, and lists at most limit of the rest.
+     */
+    public ChannelQuery setPage(int offset, int limit) {
+        if (offset < 0 || limit < 0)
+            throw new IllegalArgumentException("Negative offset or limit");
+        _offset = offset;
+        _limit = limit;
+        return this;
+    }
+
+    public boolean hasGroup() {
+        return _groupSet;
+    }
+
+    public String getGroup() {
+        return _group;
+    }
+
+    public Boolean getEnabled() {
+        return _enabled;
+    }
+
+    public int getMinImportance() {
+        return _minImportance;
+    }
+
+    public int getMaxImportance() {
+        return _maxImportance;
+    }
+
+    public Boolean getHasSound() {
+        return _hasSound;
+    }
+
+    public Boolean getVibrationEnabled() {
+        return _vibrationEnabled;
+    }
+
+    public int getOffset() {
+        return _offset;
+    }
+
+    public int getLimit() {
+        return _limit;
+    }
+
+    public boolean matches(ChannelRecord channel) {
+        return matches(channel.group, channel.enabled, channel.importance, hasSound(channel.sound), channel.vibrationEnabled);
+    }
+
+    /**
+     * Returns whether a channel with these settings matches, for channels that are not
+     * records, such as the system channels on Oreo and later.
+     */
+    public boolean matches(String group, boolean enabled, int importance, boolean hasSound, boolean vibrationEnabled) {
+        return (!_groupSet || (_group == null ? group == null : _group.equals(group)))
+                && (_enabled == null || _enabled == enabled)
+                && importance >= _minImportance && importance <= _maxImportance
+                && (_hasSound == null || _hasSound == hasSound)
+                && (_vibrationEnabled == null || _vibrationEnabled == vibrationEnabled);
+    }
+
+    static boolean hasSound(String sound) {
+        return sound != null && !sound.isEmpty();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Indexes of the channels of a {@link ChannelCatalog} by group, importance, enabled state,
+ * sound and vibration, for {@link ChannelQuery}.
+ * <p>
+ * Each index maps a value to the ids of the channels that have it, sorted. A query walks the
+ * smallest set its criteria select, in order of id, checks the other criteria against the
+ * channel, and stops once its page is full, so neither all channels nor all matches are
+ * visited. Like {@link ChannelSearchIndex}, it is built on first query, and then indexes the
+ * channels that changed on the next query.
+ */
+public final class ChannelQueryIndex {
+    private final ChannelCatalog _catalog;
+    private final Object _lock = new Object();
+    private final TreeSet<String> _all = new TreeSet<>(); // guarded by _lock
+    private final HashMap<String, TreeSet<String>> _byGroup = new HashMap<>(); // null key for channels without group, guarded by _lock
+    private final TreeMap<Integer, TreeSet<String>> _byImportance = new TreeMap<>(); // guarded by _lock
+    private final HashMap<Boolean, TreeSet<String>> _byEnabled = new HashMap<>(); // guarded by _lock
+    private final HashMap<Boolean, TreeSet<String>> _bySound = new HashMap<>(); // guarded by _lock
+    private final HashMap<Boolean, TreeSet<String>> _byVibration = new HashMap<>(); // guarded by _lock
+    private final HashMap<String, ChannelRecord> _indexed = new HashMap<>(); // the channels as indexed, guarded by _lock
+    private HashSet<String> _changedChannels = new HashSet<>(); // guarded by _lock
+    private boolean _idsChanged; // guarded by _lock
+    private boolean _built; // guarded by _lock
+
+    private final ChannelStore.OnChangeListener _catalogListener = new ChannelStore.OnChangeListener() {
+        @Override
+        public void onChannelChanged(String channelId) {
+            synchronized (_lock) {
+                _changedChannels.add(channelId);
+            }
+        }
+
+        @Override
+        public void onGroupChanged(String groupId) {
+            // Channels name their group, so a group change that moves channels is a channel change
+        }
+
+        @Override
+        public void onStoreChanged() {
+            // Some stores only report that the ids changed, not which channels came or went
+            synchronized (_lock) {
+                _idsChanged = true;
+            }
+        }
+    };
+
+    public ChannelQueryIndex(ChannelCatalog catalog) {
+        _catalog = catalog;
+        _catalog.addOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Stops following the changes of the catalog. The index must not be used afterwards.
+     */
+    public void close() {
+        _catalog.removeOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Returns the ids of the page of channels that match the query, in order of id.
+     */
+    public List<String> query(ChannelQuery query) {
+        synchronized (_lock) {
+            update();
+            if (query.getLimit() == 0)
+                return Collections.emptyList();
+            List<String> ids = new ArrayList<>();
+            int skip = query.getOffset();
+            for (String channelId : candidates(query)) {
+                if (!query.matches(_indexed.get(channelId)))
+                    continue;
+                if (skip > 0) {
+                    --skip;
+                    continue;
+                }
+                ids.add(channelId);
+                if (ids.size() == query.getLimit())
+                    break;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Returns the number of channels that match the query, ignoring its page.
+     */
+    public int count(ChannelQuery query) {
+        synchronized (_lock) {
+            update();
+            int count = 0;
+            for (String channelId : candidates(query)) {
+                if (query.matches(_indexed.get(channelId)))
+                    ++count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Adds the size of the index to out, see {@link ChannelCatalog#collectDiagnostics}.
+     */
+    public void collectDiagnostics(Map<String, Object> out) {
+        synchronized (_lock) {
+            out.put("built", _built);
+            out.put("channels", _all.size());
+            out.put("groups", _byGroup.size());
+            out.put("importances", _byImportance.size());
+            out.put("pending_channels", _changedChannels.size());
+        }
+    }
+
+    // Returns the smallest sorted set of ids that holds all matches. Called with _lock held.
+    private TreeSet<String> candidates(ChannelQuery query) {
+        TreeSet<String> candidates = _all;
+        if (query.hasGroup())
+            candidates = smaller(candidates, selected(_byGroup, query.getGroup()));
+        if (query.getEnabled() != null)
+            candidates = smaller(candidates, selected(_byEnabled, query.getEnabled()));
+        if (query.getHasSound() != null)
+            candidates = smaller(candidates, selected(_bySound, query.getHasSound()));
+        if (query.getVibrationEnabled() != null)
+            candidates = smaller(candidates, selected(_byVibration, query.getVibrationEnabled()));
+        if (query.getMinImportance() > Integer.MIN_VALUE || query.getMaxImportance() < Integer.MAX_VALUE) {
+            if (query.getMinImportance() > query.getMaxImportance())
+                return new TreeSet<>();
+            NavigableMap<Integer, TreeSet<String>> range = _byImportance.subMap(query.getMinImportance(), true, query.getMaxImportance(), true);
+            int size = 0;
+            for (TreeSet<String> ids : range.values())
+                size += ids.size();
+            if (range.size() == 1) {
+                candidates = smaller(candidates, range.firstEntry().getValue());
+            } else if (size < candidates.size()) {
+                // Several importances are merged, which only pays when they are the fewest
+                TreeSet<String> merged = new TreeSet<>();
+                for (TreeSet<String> ids : range.values())
+                    merged.addAll(ids);
+                candidates = merged;
+            }
+        }
+        return candidates;
+    }
+
+    // Returns the ids of the channels with the value, an empty set if there are none
+    private static <K> TreeSet<String> selected(Map<K, TreeSet<String>> index, K key) {
+        TreeSet<String> ids = index.get(key);
+        return ids == null ? new TreeSet<String>() : ids;
+    }
+
+    private static TreeSet<String> smaller(TreeSet<String> candidates, TreeSet<String> ids) {
+        return ids.size() < candidates.size() ? ids : candidates;
+    }
+
+    // Brings the index up to date with the catalog. Called with _lock held.
+    private void update() {
+        if (!_built) {
+            _built = true;
+            _changedChannels.clear();
+            _idsChanged = false;
+            for (String channelId : _catalog.getChannelIds())
+                index(channelId);
+            return;
+        }
+        if (_idsChanged)
+            addChangedIds();
+        if (_changedChannels.isEmpty())
+            return;
+        HashSet<String> changedChannels = _changedChannels;
+        _changedChannels = new HashSet<>();
+        for (String channelId : changedChannels)
+            index(channelId);
+    }
+
+    // Notes the channels that were added or removed since they were indexed. Called with _lock held.
+    private void addChangedIds() {
+        _idsChanged = false;
+        Set<String> channelIds = _catalog.getChannelIds();
+        for (String channelId : channelIds) {
+            if (!_indexed.containsKey(channelId))
+                _changedChannels.add(channelId);
+        }
+        for (String channelId : _indexed.keySet()) {
+            if (!channelIds.contains(channelId))
+                _changedChannels.add(channelId);
+        }
+    }
+
+    // Replaces the indexed values of the channel with its current ones, or drops it if it is gone
+    private void index(String channelId) {
+        ChannelRecord old = _indexed.remove(channelId);
+        if (old != null) {
+            _all.remove(channelId);
+            remove(_byGroup, old.group, channelId);
+            remove(_byImportance, old.importance, channelId);
+            remove(_byEnabled, old.enabled, channelId);
+            remove(_bySound, ChannelQuery.hasSound(old.sound), channelId);
+            remove(_byVibration, old.vibrationEnabled, channelId);
+        }
+        ChannelRecord channel = _catalog.getChannel(channelId);
+        if (channel == null)
+            return;
+        _indexed.put(channelId, channel);
+        _all.add(channelId);
+        add(_byGroup, channel.group, channelId);
+        add(_byImportance, channel.importance, channelId);
+        add(_byEnabled, channel.enabled, channelId);
+        add(_bySound, ChannelQuery.hasSound(channel.sound), channelId);
+        add(_byVibration, channel.vibrationEnabled, channelId);
+    }
+
+    private static <K> void add(Map<K, TreeSet<String>> index, K key, String channelId) {
+        TreeSet<String> ids = index.get(key);
+        if (ids == null) {
+            ids = new TreeSet<>();
+            index.put(key, ids);
+        }
+        ids.add(channelId);
+    }
+
+    private static <K> void remove(Map<K, TreeSet<String>> index, K key, String channelId) {
+        TreeSet<String> ids = index.get(key);
+        if (ids != null && ids.remove(channelId) && ids.isEmpty())
+            index.remove(key);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long the settings of deleted channels and groups are kept, so that they can be reused if
+ * the channel or group is created again. Settings beyond the policy are purged by
+ * {@link ChannelCatalog#compact}. Channels and groups are counted separately.
+ */
+public final class ChannelRetentionPolicy {
+    /** Keeps the settings of deleted channels and groups forever, which is the default */
+    public static final ChannelRetentionPolicy KEEP_ALL = new ChannelRetentionPolicy(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final long _maxAgeMillis;
+    private final int _maxCount;
+
+    /**
+     * @param maxAgeMillis how long after deletion settings are kept
+     * @param maxCount     how many deleted channels, and how many deleted groups, are kept at
+     *                     most. The most recently deleted are kept.
+     */
+    public ChannelRetentionPolicy(long maxAgeMillis, int maxCount) {
+        if (maxAgeMillis < 0 || maxCount < 0)
+            throw new IllegalArgumentException("maxAgeMillis and maxCount must not be negative");
+        _maxAgeMillis = maxAgeMillis;
+        _maxCount = maxCount;
+    }
+
+    public static ChannelRetentionPolicy maxAge(long duration, TimeUnit unit) {
+        return new ChannelRetentionPolicy(unit.toMillis(duration), Integer.MAX_VALUE);
+    }
+
+    public static ChannelRetentionPolicy maxCount(int count) {
+        return new ChannelRetentionPolicy(Long.MAX_VALUE, count);
+    }
+
+    public long getMaxAgeMillis() {
+        return _maxAgeMillis;
+    }
+
+    public int getMaxCount() {
+        return _maxCount;
+    }
+
+    public boolean keepsAll() {
+        return _maxAgeMillis == Long.MAX_VALUE && _maxCount == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns whether the settings deleted at deletedMillis are still kept at nowMillis.
+     *
+     * @param rank how many deleted ones are more recent
+     */
+    boolean keeps(long deletedMillis, int rank, long nowMillis) {
+        return rank < _maxCount && nowMillis - deletedMillis <= _maxAgeMillis;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Word prefix index over the names and descriptions of the channels of a {@link ChannelCatalog},
+ * and the names of their groups. A channel matches a query if every word of the query starts a
+ * word of its texts, ignoring case, so "wo up" finds "Workout updates".
+ * <p>
+ * Words map to the channels that have them in a sorted map, so all words with a prefix are a
+ * single range. The index is built on first search, and then follows the catalog: changed
+ * channels and groups are noted as they change, and indexed again by the next search.
+ */
+public final class ChannelSearchIndex {
+    private final ChannelCatalog _catalog;
+    private final Object _lock = new Object();
+    private final TreeMap<String, HashSet<String>> _channelsByWord = new TreeMap<>(); // guarded by _lock
+    private final HashMap<String, List<String>> _wordsByChannel = new HashMap<>(); // guarded by _lock
+    private HashSet<String> _changedChannels = new HashSet<>(); // guarded by _lock
+    private HashSet<String> _changedGroups = new HashSet<>(); // guarded by _lock
+    private boolean _idsChanged; // guarded by _lock
+    private boolean _built; // guarded by _lock
+
+    private final ChannelStore.OnChangeListener _catalogListener = new ChannelStore.OnChangeListener() {
+        @Override
+        public void onChannelChanged(String channelId) {
+            synchronized (_lock) {
+                _changedChannels.add(channelId);
+            }
+        }
+
+        @Override
+        public void onGroupChanged(String groupId) {
+            synchronized (_lock) {
+                _changedGroups.add(groupId);
+            }
+        }
+
+        @Override
+        public void onStoreChanged() {
+            // Some stores only report that the ids changed, not which channels came or went
+            synchronized (_lock) {
+                _idsChanged = true;
+            }
+        }
+    };
+
+    public ChannelSearchIndex(ChannelCatalog catalog) {
+        _catalog = catalog;
+        _catalog.addOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Stops following the changes of the catalog. The index must not be used afterwards.
+     */
+    public void close() {
+        _catalog.removeOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Returns the ids of the existing channels that match the query, in no particular order.
+     * A query without words matches all channels.
+     */
+    public Set<String> search(String query) {
+        List<String> queryWords = words(query);
+        synchronized (_lock) {
+            update();
+            if (queryWords.isEmpty())
+                return new HashSet<>(_wordsByChannel.keySet());
+            HashSet<String> result = null;
+            for (String queryWord : queryWords) {
+                HashSet<String> matches = new HashSet<>();
+                // All words from the query word up to the last word it is a prefix of
+                for (HashSet<String> channelIds : _channelsByWord.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false).values())
+                    matches.addAll(channelIds);
+                if (result == null)
+                    result = matches;
+                else
+                    result.retainAll(matches);
+                if (result.isEmpty())
+                    break;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns whether the texts of a channel match the query, the same way {@link #search} does,
+     * for channels that are not in an index.
+     */
+    public static boolean matches(String query, String name, String description, String groupName) {
+        List<String> channelWords = new ArrayList<>();
+        addWords(channelWords, name);
+        addWords(channelWords, description);
+        addWords(channelWords, groupName);
+        for (String queryWord : words(query)) {
+            boolean found = false;
+            for (String channelWord : channelWords) {
+                if (channelWord.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the size of the index to out, see {@link ChannelCatalog#collectDiagnostics}.
+     */
+    public void collectDiagnostics(Map<String, Object> out) {
+        synchronized (_lock) {
+            out.put("built", _built);
+            out.put("channels", _wordsByChannel.size());
+            out.put("words", _channelsByWord.size());
+            out.put("pending_channels", _changedChannels.size());
+            out.put("pending_groups", _changedGroups.size());
+        }
+    }
+
+    // Brings the index up to date with the catalog. Called with _lock held.
+    private void update() {
+        if (!_built) {
+            _built = true;
+            _changedChannels.clear();
+            _changedGroups.clear();
+            _idsChanged = false;
+            for (String channelId : _catalog.getChannelIds())
+                index(channelId);
+            return;
+        }
+        if (_idsChanged)
+            addChangedIds();
+        if (_changedChannels.isEmpty() && _changedGroups.isEmpty())
+            return;
+        HashSet<String> changedChannels = _changedChannels;
+        // The channels of a renamed group have new words, a channel that left it has its own change
+        for (String groupId : _changedGroups)
+            changedChannels.addAll(_catalog.getChannelIdsOfGroup(groupId));
+        _changedChannels = new HashSet<>();
+        _changedGroups = new HashSet<>();
+        for (String channelId : changedChannels)
+            index(channelId);
+    }
+
+    // Notes the channels that were added or removed since they were indexed. Called with _lock held.
+    private void addChangedIds() {
+        _idsChanged = false;
+        Set<String> channelIds = _catalog.getChannelIds();
+        for (String channelId : channelIds) {
+            if (!_wordsByChannel.containsKey(channelId))
+                _changedChannels.add(channelId);
+        }
+        for (String channelId : _wordsByChannel.keySet()) {
+            if (!channelIds.contains(channelId))
+                _changedChannels.add(channelId);
+        }
+    }
+
+    // Replaces the words of the channel with its current ones, or drops it if it is gone
+    private void index(String channelId) {
+        List<String> oldWords = _wordsByChannel.remove(channelId);
+        if (oldWords != null) {
+            for (String word : oldWords) {
+                HashSet<String> channelIds = _channelsByWord.get(word);
+                if (channelIds != null && channelIds.remove(channelId) && channelIds.isEmpty())
+                    _channelsByWord.remove(word);
+            }
+        }
+        ChannelRecord channel = _catalog.getChannel(channelId);
+        if (channel == null)
+            return;
+        GroupRecord group = channel.group == null ? null : _catalog.getGroup(channel.group);
+        List<String> words = new ArrayList<>();
+        addWords(words, channel.name);
+        addWords(words, channel.description);
+        if (group != null)
+            addWords(words, group.name);
+        for (String word : words) {
+            HashSet<String> channelIds = _channelsByWord.get(word);
+            if (channelIds == null) {
+                channelIds = new HashSet<>(4);
+                _channelsByWord.put(word, channelIds);
+            }
+            channelIds.add(channelId);
+        }
+        _wordsByChannel.put(channelId, words);
+    }
+
+    static List<String> words(String text) {
+        if (text == null)
+            return Collections.emptyList();
+        List<String> words = new ArrayList<>();
+        addWords(words, text);
+        return words;
+    }
+
+    // Adds the distinct lower case words of the text, a word being a run of letters and digits
+    private static void addWords(List<String> words, String text) {
+        if (text == null)
+            return;
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); ++i) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String word = lower.substring(start, i);
+                if (!words.contains(word))
+                    words.add(word);
+                start = -1;
+            }
+        }
+    }
+}
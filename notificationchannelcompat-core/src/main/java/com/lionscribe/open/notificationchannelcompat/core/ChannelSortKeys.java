@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The channels and groups of a {@link ChannelCatalog} sorted by name, the way the language of
+ * a locale sorts, ignoring case. Names that sort the same are sorted by id.
+ * <p>
+ * Each name is turned into a {@link CollationKey} once, and sorting only compares keys. The
+ * sorted lists are kept until a name, a group or the ids change, so that listing the channels
+ * again sorts nothing. Like {@link ChannelSearchIndex}, the keys are made on first use,
+ * and then follow the catalog. Asking with another locale makes all keys again.
+ */
+public final class ChannelSortKeys {
+    private final ChannelCatalog _catalog;
+    private final Object _lock = new Object();
+    private Locale _locale; // of the keys, null until made, guarded by _lock
+    private Collator _collator; // not thread safe, guarded by _lock
+    private final HashMap<String, ChannelKey> _channelKeys = new HashMap<>(); // guarded by _lock
+    private final HashMap<String, NamedKey> _groupKeys = new HashMap<>(); // guarded by _lock
+    private List<String> _sortedChannelIds; // null when stale, guarded by _lock
+    private List<String> _sortedGroupIds; // null when stale, guarded by _lock
+    private Map<String, List<String>> _sortedChannelIdsByGroup; // null key for channels without group, null when stale, guarded by _lock
+    private HashSet<String> _changedChannels = new HashSet<>(); // guarded by _lock
+    private HashSet<String> _changedGroups = new HashSet<>(); // guarded by _lock
+    private boolean _idsChanged; // guarded by _lock
+
+    private final ChannelStore.OnChangeListener _catalogListener = new ChannelStore.OnChangeListener() {
+        @Override
+        public void onChannelChanged(String channelId) {
+            synchronized (_lock) {
+                _changedChannels.add(channelId);
+            }
+        }
+
+        @Override
+        public void onGroupChanged(String groupId) {
+            synchronized (_lock) {
+                _changedGroups.add(groupId);
+            }
+        }
+
+        @Override
+        public void onStoreChanged() {
+            synchronized (_lock) {
+                _idsChanged = true;
+            }
+        }
+    };
+
+    private static final Comparator<NamedKey> ORDER = new Comparator<NamedKey>() {
+        @Override
+        public int compare(NamedKey obj1, NamedKey obj2) {
+            int result = obj1._key.compareTo(obj2._key);
+            return result != 0 ? result : obj1._id.compareTo(obj2._id);
+        }
+    };
+
+    public ChannelSortKeys(ChannelCatalog catalog) {
+        _catalog = catalog;
+        _catalog.addOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Stops following the changes of the catalog. The sort keys must not be used afterwards.
+     */
+    public void close() {
+        _catalog.removeOnChangeListener(_catalogListener);
+    }
+
+    /**
+     * Returns the ids of the existing groups in order of name. The returned list is an
+     * immutable snapshot.
+     */
+    public List<String> getSortedGroupIds(Locale locale) {
+        synchronized (_lock) {
+            update(locale);
+            if (_sortedGroupIds == null)
+                _sortedGroupIds = sort(_groupKeys.values());
+            return _sortedGroupIds;
+        }
+    }
+
+    /**
+     * Returns the ids of the existing channels in order of name. The returned list is an
+     * immutable snapshot.
+     */
+    public List<String> getSortedChannelIds(Locale locale) {
+        synchronized (_lock) {
+            update(locale);
+            if (_sortedChannelIds == null)
+                _sortedChannelIds = sort(_channelKeys.values());
+            return _sortedChannelIds;
+        }
+    }
+
+    /**
+     * Returns the ids of the existing channels of the group, or of the channels without group
+     * if groupId is null, in order of name. The returned list is an immutable snapshot.
+     */
+    public List<String> getSortedChannelIdsOfGroup(String groupId, Locale locale) {
+        synchronized (_lock) {
+            List<String> channelIds = getSortedChannelIds(locale);
+            if (_sortedChannelIdsByGroup == null) {
+                // Bucketed in one pass, which keeps each group's channels sorted
+                HashMap<String, List<String>> byGroup = new HashMap<>();
+                for (String channelId : channelIds) {
+                    String group = _channelKeys.get(channelId)._group;
+                    List<String> ids = byGroup.get(group);
+                    if (ids == null) {
+                        ids = new ArrayList<>();
+                        byGroup.put(group, ids);
+                    }
+                    ids.add(channelId);
+                }
+                for (Map.Entry<String, List<String>> entry : byGroup.entrySet())
+                    entry.setValue(Collections.unmodifiableList(entry.getValue()));
+                _sortedChannelIdsByGroup = byGroup;
+            }
+            List<String> ids = _sortedChannelIdsByGroup.get(groupId);
+            return ids == null ? Collections.<String>emptyList() : ids;
+        }
+    }
+
+    /**
+     * Returns a collator that sorts names the way the sort keys do, for names that are not in
+     * a catalog, such as the system channels on Oreo and later.
+     */
+    public static Collator newCollator(Locale locale) {
+        Collator collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY); // accents count, case doesn't
+        return collator;
+    }
+
+    /**
+     * Adds the number of keys to out, see {@link ChannelCatalog#collectDiagnostics}.
+     */
+    public void collectDiagnostics(Map<String, Object> out) {
+        synchronized (_lock) {
+            out.put("locale", _locale == null ? "none" : _locale.toString());
+            out.put("channel_keys", _channelKeys.size());
+            out.put("group_keys", _groupKeys.size());
+            out.put("sorted", _sortedChannelIds != null);
+        }
+    }
+
+    // Brings the keys up to date with the catalog and the locale. Called with _lock held.
+    private void update(Locale locale) {
+        if (!locale.equals(_locale)) {
+            _locale = locale;
+            _collator = newCollator(locale);
+            _channelKeys.clear();
+            _groupKeys.clear();
+            _changedChannels.clear();
+            _changedGroups.clear();
+            _idsChanged = false;
+            _sortedChannelIds = null;
+            _sortedGroupIds = null;
+            _sortedChannelIdsByGroup = null;
+            for (String channelId : _catalog.getChannelIds())
+                keyChannel(channelId);
+            for (String groupId : _catalog.getGroupIds())
+                keyGroup(groupId);
+            return;
+        }
+        if (_idsChanged)
+            addChangedIds();
+        if (!_changedChannels.isEmpty()) {
+            HashSet<String> changedChannels = _changedChannels;
+            _changedChannels = new HashSet<>();
+            for (String channelId : changedChannels)
+                keyChannel(channelId);
+        }
+        if (!_changedGroups.isEmpty()) {
+            HashSet<String> changedGroups = _changedGroups;
+            _changedGroups = new HashSet<>();
+            for (String groupId : changedGroups)
+                keyGroup(groupId);
+        }
+    }
+
+    // Notes the channels and groups that were added or removed since they were keyed
+    private void addChangedIds() {
+        _idsChanged = false;
+        addChangedIds(_catalog.getChannelIds(), _channelKeys.keySet(), _changedChannels);
+        addChangedIds(_catalog.getGroupIds(), _groupKeys.keySet(), _changedGroups);
+    }
+
+    private static void addChangedIds(Set<String> ids, Set<String> keyedIds, Set<String> changedIds) {
+        for (String id : ids) {
+            if (!keyedIds.contains(id))
+                changedIds.add(id);
+        }
+        for (String id : keyedIds) {
+            if (!ids.contains(id))
+                changedIds.add(id);
+        }
+    }
+
+    // Makes the key of the channel again if its name or group changed, and drops the stale lists
+    private void keyChannel(String channelId) {
+        ChannelRecord channel = _catalog.getChannel(channelId);
+        ChannelKey old = _channelKeys.get(channelId);
+        if (channel == null) {
+            if (old != null) {
+                _channelKeys.remove(channelId);
+                _sortedChannelIds = null;
+                _sortedChannelIdsByGroup = null;
+            }
+            return;
+        }
+        if (old != null && equals(old._name, channel.name) && equals(old._group, channel.group))
+            return; // only its settings changed, which doesn't move it
+        _channelKeys.put(channelId, new ChannelKey(channelId, channel.name, _collator.getCollationKey(channel.name == null ? "" : channel.name), channel.group));
+        _sortedChannelIds = null;
+        _sortedChannelIdsByGroup = null;
+    }
+
+    private void keyGroup(String groupId) {
+        GroupRecord group = _catalog.getGroup(groupId);
+        NamedKey old = _groupKeys.get(groupId);
+        if (group == null) {
+            if (old != null) {
+                _groupKeys.remove(groupId);
+                _sortedGroupIds = null;
+            }
+            return;
+        }
+        if (old != null && equals(old._name, group.name))
+            return;
+        _groupKeys.put(groupId, new NamedKey(groupId, group.name, _collator.getCollationKey(group.name == null ? "" : group.name)));
+        _sortedGroupIds = null;
+    }
+
+    private static List<String> sort(Collection<? extends NamedKey> keys) {
+        List<NamedKey> sorted = new ArrayList<NamedKey>(keys);
+        Collections.sort(sorted, ORDER);
+        List<String> ids = new ArrayList<>(sorted.size());
+        for (NamedKey key : sorted)
+            ids.add(key._id);
+        return Collections.unmodifiableList(ids);
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static class NamedKey {
+        final String _id;
+        final String _name; // as keyed, to tell whether a change renamed it
+        final CollationKey _key;
+
+        NamedKey(String id, String name, CollationKey key) {
+            _id = id;
+            _name = name;
+            _key = key;
+        }
+    }
+
+    private static final class ChannelKey extends NamedKey {
+        final String _group;
+
+        ChannelKey(String id, String name, CollationKey key, String group) {
+            super(id, name, key);
+            _group = group;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+/**
+ * Emits named trace sections around the catalog's store reads, writes, batch creates,
+ * compaction and preload, so that they can be told apart in a system trace. The Android library
+ * implements it with androidx.tracing.
+ * <p>
+ * Sections are only begun after {@link #isEnabled()} returned true, so a disabled tracer costs
+ * a single check.
+ */
+public interface ChannelTracer {
+    String SECTION_PRELOAD = "ChannelCatalog.preload";
+    String SECTION_STORE_READ = "ChannelStore.read";
+    String SECTION_STORE_WRITE = "ChannelStore.write";
+    String SECTION_CREATE_GROUPS = "ChannelCatalog.createGroups";
+    String SECTION_CREATE_CHANNELS = "ChannelCatalog.createChannels";
+    String SECTION_COMPACT = "ChannelCatalog.compact";
+
+    boolean isEnabled();
+
+    /**
+     * Begins a section, which ends with the matching {@link #endSection()} on the same thread.
+     */
+    void beginSection(String name);
+
+    void endSection();
+}
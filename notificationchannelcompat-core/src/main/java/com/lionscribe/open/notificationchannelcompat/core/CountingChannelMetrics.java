@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The default {@link ChannelMetrics}, which counts decisions by reason and keeps
+ * {@link LatencyHistogram}s of decisions, store reads, store writes and preloads. All updates
+ * are lock-free and allocate nothing, so it can stay enabled in production.
+ */
+public class CountingChannelMetrics implements ChannelMetrics {
+    private final AtomicLongArray _decisions = new AtomicLongArray(ChannelDecision.REASON_COUNT);
+    private final LatencyHistogram _decisionLatency = new LatencyHistogram();
+    private final LatencyHistogram _readLatency = new LatencyHistogram();
+    private final LatencyHistogram _writeLatency = new LatencyHistogram();
+    private final LatencyHistogram _preloadLatency = new LatencyHistogram();
+
+    @Override
+    public void onDecision(String channelId, int reason, long elapsedNanos) {
+        if (reason >= 0 && reason < ChannelDecision.REASON_COUNT)
+            _decisions.incrementAndGet(reason);
+        _decisionLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onStoreRead(long elapsedNanos) {
+        _readLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onStoreWrite(long elapsedNanos) {
+        _writeLatency.record(elapsedNanos);
+    }
+
+    @Override
+    public void onPreload(long elapsedNanos) {
+        _preloadLatency.record(elapsedNanos);
+    }
+
+    /**
+     * Returns how many decisions had the reason, one of the {@link ChannelDecision} reasons.
+     */
+    public long getDecisionCount(int reason) {
+        return _decisions.get(reason);
+    }
+
+    public LatencyHistogram getDecisionLatency() {
+        return _decisionLatency;
+    }
+
+    public LatencyHistogram getStoreReadLatency() {
+        return _readLatency;
+    }
+
+    public LatencyHistogram getStoreWriteLatency() {
+        return _writeLatency;
+    }
+
+    public LatencyHistogram getPreloadLatency() {
+        return _preloadLatency;
+    }
+
+    /**
+     * Adds the counters and latency percentiles to out, under short, lower case and stable keys.
+     */
+    public void collectDiagnostics(Map<String, Object> out) {
+        for (int reason = 0; reason < ChannelDecision.REASON_COUNT; ++reason)
+            out.put("decisions." + ChannelDecision.reasonName(reason), _decisions.get(reason));
+        collectLatency(out, "decision_latency", _decisionLatency);
+        collectLatency(out, "store_read_latency", _readLatency);
+        collectLatency(out, "store_write_latency", _writeLatency);
+        collectLatency(out, "preload_latency", _preloadLatency);
+    }
+
+    private static void collectLatency(Map<String, Object> out, String name, LatencyHistogram histogram) {
+        out.put(name + ".count", histogram.getCount());
+        out.put(name + ".mean_ns", histogram.getMeanNanos());
+        out.put(name + ".p50_ns", histogram.getPercentileNanos(50));
+        out.put(name + ".p99_ns", histogram.getPercentileNanos(99));
+        out.put(name + ".max_ns", histogram.getMaxNanos());
+    }
+
+    public void reset() {
+        for (int i = 0; i < ChannelDecision.REASON_COUNT; ++i)
+            _decisions.set(i, 0);
+        _decisionLatency.reset();
+        _readLatency.reset();
+        _writeLatency.reset();
+        _preloadLatency.reset();
+    }
+}
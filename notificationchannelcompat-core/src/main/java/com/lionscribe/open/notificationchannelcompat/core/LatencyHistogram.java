@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with power of two buckets. Recording is a
+ * few atomic increments and allocates nothing. Percentiles are estimated as the upper bound of
+ * the bucket they fall in, so they are at most twice the real value.
+ */
+public final class LatencyHistogram {
+    /** Bucket 0 holds 0ns, and bucket b holds durations from 2^(b-1) up to 2^b - 1 ns */
+    public static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _totalNanos = new AtomicLong();
+    private final AtomicLong _maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0; // nanoTime is monotonic, but be safe
+        _buckets.incrementAndGet(bucketOf(nanos));
+        _count.incrementAndGet();
+        _totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = _maxNanos.get()) && !_maxNanos.compareAndSet(max, nanos)) {
+            // another thread raised the max, retry
+        }
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getTotalNanos() {
+        return _totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return _maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long count = _count.get();
+        return count == 0 ? 0 : _totalNanos.get() / count;
+    }
+
+    public long getBucketCount(int bucket) {
+        return _buckets.get(bucket);
+    }
+
+    /**
+     * Returns the estimated duration that the given percentage of recordings did not exceed,
+     * or 0 if nothing was recorded.
+     *
+     * @param percentile from 0 to 100
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = 0;
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+            count += buckets[i] = _buckets.get(i); // a consistent count, as recording may go on
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            seen += buckets[i];
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), _maxNanos.get());
+        }
+        return _maxNanos.get();
+    }
+
+    /**
+     * Clears all recordings. Recordings made at the same time may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; ++i)
+            _buckets.set(i, 0);
+        _count.set(0);
+        _totalNanos.set(0);
+        _maxNanos.set(0);
+    }
+
+    static int bucketOf(long nanos) {
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    static long bucketUpperBound(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
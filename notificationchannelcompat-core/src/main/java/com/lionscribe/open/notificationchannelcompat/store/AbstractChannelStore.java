@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Base class for {@link ChannelStore} implementations, that takes care of collecting
+ * transactions and notifying listeners. Subclasses only have to implement the reads and
+ * {@link #write(PendingTransaction, boolean)}.
+ */
+public abstract class AbstractChannelStore implements ChannelStore {
+    private final CopyOnWriteArrayList<OnChangeListener> _listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Transaction beginTransaction() {
+        return new PendingTransaction(this);
+    }
+
+    @Override
+    public void addOnChangeListener(OnChangeListener listener) {
+        _listeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void removeOnChangeListener(OnChangeListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Makes the changes of the transaction visible to readers, and writes them to storage.
+     * Listeners are notified by the caller once this returns.
+     *
+     * @param sync true if the changes must be written before returning
+     * @return true if the changes were written successfully
+     */
+    protected abstract boolean write(PendingTransaction transaction, boolean sync);
+
+    protected void notifyChannelChanged(String channelId) {
+        for (OnChangeListener listener : _listeners)
+            listener.onChannelChanged(channelId);
+    }
+
+    protected void notifyGroupChanged(String groupId) {
+        for (OnChangeListener listener : _listeners)
+            listener.onGroupChanged(groupId);
+    }
+
+    protected void notifyStoreChanged() {
+        for (OnChangeListener listener : _listeners)
+            listener.onStoreChanged();
+    }
+
+    void notifyTransaction(PendingTransaction transaction) {
+        if (transaction.isEmpty())
+            return;
+        for (String channelId : transaction._channels.keySet())
+            notifyChannelChanged(channelId);
+        for (String channelId : transaction._purgedChannels)
+            notifyChannelChanged(channelId);
+        for (String groupId : transaction._groups.keySet())
+            notifyGroupChanged(groupId);
+        for (String groupId : transaction._purgedGroups)
+            notifyGroupChanged(groupId);
+        if (transaction._notificationsEnabled != null)
+            notifyStoreChanged();
+    }
+
+    /**
+     * The changes collected by a {@link Transaction}. A null record stands for a removal.
+     * Purged ids are kept apart, and are never among the changed records.
+     */
+    public static final class PendingTransaction implements Transaction {
+        private final AbstractChannelStore _store;
+        private final LinkedHashMap<String, ChannelRecord> _channels = new LinkedHashMap<>();
+        private final LinkedHashMap<String, GroupRecord> _groups = new LinkedHashMap<>();
+        private final LinkedHashSet<String> _purgedChannels = new LinkedHashSet<>();
+        private final LinkedHashSet<String> _purgedGroups = new LinkedHashSet<>();
+        private final long _time;
+        private Boolean _notificationsEnabled;
+
+        PendingTransaction(AbstractChannelStore store) {
+            this(store, System.currentTimeMillis());
+        }
+
+        PendingTransaction(AbstractChannelStore store, long time) {
+            _store = store;
+            _time = time;
+        }
+
+        @Override
+        public Transaction setNotificationsEnabled(boolean enabled) {
+            _notificationsEnabled = enabled;
+            return this;
+        }
+
+        @Override
+        public Transaction putChannel(ChannelRecord channel) {
+            _purgedChannels.remove(channel.id);
+            _channels.put(channel.id, channel.copy());
+            return this;
+        }
+
+        @Override
+        public Transaction removeChannel(String channelId) {
+            _purgedChannels.remove(channelId);
+            _channels.put(channelId, null);
+            return this;
+        }
+
+        @Override
+        public Transaction purgeChannel(String channelId) {
+            _channels.remove(channelId);
+            _purgedChannels.add(channelId);
+            return this;
+        }
+
+        @Override
+        public Transaction putGroup(GroupRecord group) {
+            _purgedGroups.remove(group.id);
+            _groups.put(group.id, group.copy());
+            return this;
+        }
+
+        @Override
+        public Transaction removeGroup(String groupId) {
+            _purgedGroups.remove(groupId);
+            _groups.put(groupId, null);
+            return this;
+        }
+
+        @Override
+        public Transaction purgeGroup(String groupId) {
+            _groups.remove(groupId);
+            _purgedGroups.add(groupId);
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            if (isEmpty())
+                return;
+            _store.write(this, false);
+            _store.notifyTransaction(this);
+        }
+
+        @Override
+        public boolean commit() {
+            if (isEmpty())
+                return true;
+            boolean result = _store.write(this, true);
+            _store.notifyTransaction(this);
+            return result;
+        }
+
+        public boolean isEmpty() {
+            return _notificationsEnabled == null && _channels.isEmpty() && _groups.isEmpty()
+                    && _purgedChannels.isEmpty() && _purgedGroups.isEmpty();
+        }
+
+        /**
+         * Returns the new state of the notifications switch, or null if unchanged.
+         */
+        public Boolean getNotificationsEnabled() {
+            return _notificationsEnabled;
+        }
+
+        /**
+         * Returns the changed channels, in order of change. Removed channels map to null.
+         */
+        public Map<String, ChannelRecord> getChannels() {
+            return Collections.unmodifiableMap(_channels);
+        }
+
+        /**
+         * Returns the changed groups, in order of change. Removed groups map to null.
+         */
+        public Map<String, GroupRecord> getGroups() {
+            return Collections.unmodifiableMap(_groups);
+        }
+
+        /**
+         * Returns the channels to remove together with their settings and tombstones.
+         */
+        public Set<String> getPurgedChannels() {
+            return Collections.unmodifiableSet(_purgedChannels);
+        }
+
+        /**
+         * Returns the groups to remove together with their settings and tombstones.
+         */
+        public Set<String> getPurgedGroups() {
+            return Collections.unmodifiableSet(_purgedGroups);
+        }
+
+        /**
+         * Returns the time the transaction was started, which is the time of its tombstones.
+         */
+        public long getTime() {
+            return _time;
+        }
+    }
+}
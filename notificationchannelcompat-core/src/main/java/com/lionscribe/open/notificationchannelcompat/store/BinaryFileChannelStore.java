@@ -0,0 +1,639 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import static com.lionscribe.open.notificationchannelcompat.store.VibrationPatterns.readVarint;
+import static com.lionscribe.open.notificationchannelcompat.store.VibrationPatterns.writeVarint;
+
+/**
+ * A {@link ChannelStore} that keeps all channels and groups in a single binary file, which is
+ * read in one go on first access, and rewritten in whole on every change.
+ * <p>
+ * File layout, all numbers big-endian:
+ * <pre>
+ * int     magic 'NCCS'
+ * short   version
+ * byte    flags (notifications enabled)
+ * varint  string count, then each string as modified UTF-8. Index 0 stands for null.
+ * varint  group count, then each group as
+ *         int id, int name, int description (string indexes), byte flags
+ * varint  channel count, then each channel as a fixed {@value #CHANNEL_RECORD_SIZE} byte record
+ *         int id, int name, int description, int sound, int group (string indexes),
+ *         short flags, int importance, int lockscreenVisibility, int lightColor,
+ *         int audioContentType, int audioFlags, int audioUsage, int audioStreamType
+ * varint  vibration pattern count, then each as varint channel index, varint length,
+ *         varint values
+ * varint  group tombstone count, then each as varint group index, varint deletion time
+ * varint  channel tombstone count, then each as varint channel index, varint deletion time
+ *         (tombstones since version 2)
+ * int     CRC32 of everything before it
+ * </pre>
+ * Writes go to a temporary file, which is then renamed over the store file, so a crash while
+ * writing leaves the previous version in place.
+ * <p>
+ * Optionally, a {@link MappedChannelIndex} is written next to the store file. Until something
+ * needs the full store, such as the list of ids or a write, single channels and groups are then
+ * looked up in the mapped index, without reading the store file at all.
+ */
+public class BinaryFileChannelStore extends InMemoryChannelStore {
+    static final int MAGIC = 0x4E43_4353; // "NCCS"
+    static final int VERSION = 2;
+    static final int CHANNEL_RECORD_SIZE = 5 * 4 + 2 + 4 + 6 * 4;
+
+    private static final int FLAG_NOTIFICATIONS_ENABLED = 1;
+
+    private static final int FLAG_EXISTS = 1;
+    private static final int FLAG_ENABLED = 1 << 1;
+    private static final int FLAG_LIGHTS = 1 << 2;
+    private static final int FLAG_VIBRATION_ENABLED = 1 << 3;
+    private static final int FLAG_AUDIO_ATTRIBUTES = 1 << 4;
+
+    private final File _file;
+    private final File _tmpFile;
+    private final File _indexFile;
+    private final File _tmpIndexFile;
+    private final Object _fileLock = new Object();
+    private boolean _loaded;
+    private boolean _fileExisted;
+    private boolean _writePending; // guarded by _fileLock
+    private Executor _writer; // guarded by _fileLock
+    private boolean _indexOpened;
+    private MappedChannelIndex _index;
+
+    public BinaryFileChannelStore(File file) {
+        this(file, false);
+    }
+
+    /**
+     * @param mappedIndex true to also write a memory-mapped index, and look up channels in it
+     *                    until the store is fully read
+     */
+    public BinaryFileChannelStore(File file, boolean mappedIndex) {
+        this(file, mappedIndex, null);
+    }
+
+    /**
+     * @param writer runs the background writes of {@link Transaction#apply()}, so that several
+     *               stores can share a thread. If null, the store starts its own thread.
+     */
+    public BinaryFileChannelStore(File file, boolean mappedIndex, Executor writer) {
+        _writer = writer;
+        _file = file;
+        _tmpFile = new File(file.getPath() + ".tmp");
+        _indexFile = mappedIndex ? new File(file.getPath() + ".idx") : null;
+        _tmpIndexFile = mappedIndex ? new File(file.getPath() + ".idx.tmp") : null;
+    }
+
+    /**
+     * Returns whether the store file was there when first read. Useful to decide whether
+     * settings should be imported from a previous store.
+     */
+    public synchronized boolean exists() {
+        ensureLoaded();
+        return _fileExisted;
+    }
+
+    /**
+     * Copies the switch and all existing channels and groups of the source store into this
+     * store, and writes them before returning.
+     */
+    public boolean importFrom(ChannelStore source) {
+        Transaction transaction = beginTransaction();
+        transaction.setNotificationsEnabled(source.isNotificationsEnabled());
+        for (String groupId : source.getGroupIds()) {
+            GroupRecord group = source.readGroup(groupId);
+            if (group != null)
+                transaction.putGroup(group);
+        }
+        for (String channelId : source.getChannelIds()) {
+            ChannelRecord channel = source.readChannel(channelId);
+            if (channel != null)
+                transaction.putChannel(channel);
+        }
+        return transaction.commit();
+    }
+
+    @Override
+    public synchronized boolean isNotificationsEnabled() {
+        MappedChannelIndex index = mappedIndex();
+        return index != null ? index.isNotificationsEnabled() : super.isNotificationsEnabled();
+    }
+
+    @Override
+    public synchronized boolean containsChannel(String channelId) {
+        MappedChannelIndex index = mappedIndex();
+        return index != null ? index.containsChannel(channelId) : super.containsChannel(channelId);
+    }
+
+    @Override
+    public synchronized boolean containsGroup(String groupId) {
+        MappedChannelIndex index = mappedIndex();
+        return index != null ? index.containsGroup(groupId) : super.containsGroup(groupId);
+    }
+
+    @Override
+    public synchronized ChannelRecord readChannel(String channelId) {
+        MappedChannelIndex index = mappedIndex();
+        return index != null ? index.readChannel(channelId) : super.readChannel(channelId);
+    }
+
+    @Override
+    public synchronized GroupRecord readGroup(String groupId) {
+        MappedChannelIndex index = mappedIndex();
+        return index != null ? index.readGroup(groupId) : super.readGroup(groupId);
+    }
+
+    @Override
+    public void collectDiagnostics(Map<String, Object> out) {
+        synchronized (this) {
+            String indexState;
+            if (_indexFile == null)
+                indexState = "none";
+            else if (_loaded)
+                indexState = "released"; // fully read, so no longer needed
+            else if (!_indexOpened)
+                indexState = "unopened";
+            else
+                indexState = _index != null ? "mapped" : "unusable";
+            out.put("file", _file.getPath());
+            out.put("bytes", _file.length());
+            out.put("index", indexState);
+            if (_indexFile != null)
+                out.put("index_bytes", _indexFile.length());
+            out.put("loaded", _loaded);
+            super.collectDiagnostics(out); // reads the whole store, so the index state is taken first
+        }
+        synchronized (_fileLock) { // not while holding this, writeFile takes the locks the other way around
+            out.put("write_pending", _writePending);
+        }
+    }
+
+    // Returns the index to read from, or null once the store is fully read
+    private MappedChannelIndex mappedIndex() {
+        if (_loaded || _indexFile == null)
+            return null;
+        if (!_indexOpened) {
+            _indexOpened = true;
+            _index = MappedChannelIndex.open(_indexFile, readDataCrc());
+            if (_index == null)
+                ensureLoaded(); // no usable index, so read the store the normal way
+        }
+        return _index;
+    }
+
+    private int readDataCrc() {
+        try {
+            RandomAccessFile file = new RandomAccessFile(_file, "r");
+            try {
+                if (file.length() < 4)
+                    return 0;
+                file.seek(file.length() - 4);
+                return file.readInt();
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    protected void ensureLoaded() {
+        if (_loaded)
+            return;
+        _loaded = true;
+        _index = null;
+        if (!_file.exists())
+            return;
+        _fileExisted = true;
+        try {
+            decode(readFully(_file));
+        } catch (IOException e) {
+            // A damaged file starts over empty, and is replaced on the next write
+            _channels.clear();
+            _groups.clear();
+            _channelTombstones.clear();
+            _groupTombstones.clear();
+            _channelIds = Collections.emptySet();
+            _groupIds = Collections.emptySet();
+            _notificationsEnabled = true;
+        }
+    }
+
+    @Override
+    protected boolean write(PendingTransaction transaction, boolean sync) {
+        super.write(transaction, sync);
+        return persist(transaction, sync);
+    }
+
+    // Writes the changes of the transaction, already made in memory, to storage
+    boolean persist(PendingTransaction transaction, boolean sync) {
+        if (sync)
+            return writeFile();
+        synchronized (_fileLock) {
+            if (_writePending)
+                return true; // the pending write will pick up these changes as well
+            _writePending = true;
+        }
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                writeFile();
+            }
+        });
+        return true;
+    }
+
+    // Makes the changes of the transaction in memory only, as when replaying them from storage
+    void applyInMemory(PendingTransaction transaction) {
+        super.write(transaction, false);
+    }
+
+    void runInBackground(Runnable task) {
+        Executor writer;
+        synchronized (_fileLock) {
+            if (_writer == null) {
+                _writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ChannelStoreWriter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            writer = _writer;
+        }
+        writer.execute(task);
+    }
+
+    boolean writeFile() {
+        synchronized (_fileLock) {
+            _writePending = false;
+            byte[] data;
+            byte[] index = null;
+            synchronized (this) {
+                // Encoded while holding the file lock, so a later write never loses to an earlier one
+                data = encode();
+                if (_indexFile != null) {
+                    int dataCrc = (data[data.length - 4] & 0xFF) << 24 | (data[data.length - 3] & 0xFF) << 16
+                            | (data[data.length - 2] & 0xFF) << 8 | (data[data.length - 1] & 0xFF);
+                    index = MappedChannelIndex.encode(_notificationsEnabled, _channels.values(), _channelIds, _groups.values(), _groupIds, dataCrc);
+                }
+            }
+            // The index goes first, it's ignored until the store file with its CRC is in place
+            if (index != null && !writeAtomically(_tmpIndexFile, _indexFile, index))
+                _indexFile.delete();
+            return writeAtomically(_tmpFile, _file, data);
+        }
+    }
+
+    private static boolean writeAtomically(File tmpFile, File file, byte[] data) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            out.write(data);
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            return true;
+        } catch (IOException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            tmpFile.delete();
+            return false;
+        }
+    }
+
+    byte[] encode() {
+        // Existing ids first, in order, then the kept settings of deleted ones
+        ArrayList<ChannelRecord> channels = new ArrayList<>(_channels.size());
+        for (String channelId : _channelIds)
+            channels.add(_channels.get(channelId));
+        for (ChannelRecord channel : _channels.values()) {
+            if (!_channelIds.contains(channel.id))
+                channels.add(channel);
+        }
+        ArrayList<GroupRecord> groups = new ArrayList<>(_groups.size());
+        for (String groupId : _groupIds)
+            groups.add(_groups.get(groupId));
+        for (GroupRecord group : _groups.values()) {
+            if (!_groupIds.contains(group.id))
+                groups.add(group);
+        }
+
+        StringTable strings = new StringTable();
+        for (GroupRecord group : groups) {
+            strings.add(group.id);
+            strings.add(group.name);
+            strings.add(group.description);
+        }
+        int patternCount = 0;
+        for (ChannelRecord channel : channels) {
+            strings.add(channel.id);
+            strings.add(channel.name);
+            strings.add(channel.description);
+            strings.add(channel.sound);
+            strings.add(channel.group);
+            if (channel.vibrationPattern != null)
+                ++patternCount;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + channels.size() * (CHANNEL_RECORD_SIZE + 32));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(_notificationsEnabled ? FLAG_NOTIFICATIONS_ENABLED : 0);
+
+            writeVarint(out, strings._list.size());
+            for (String string : strings._list)
+                out.writeUTF(string);
+
+            writeVarint(out, groups.size());
+            for (GroupRecord group : groups) {
+                out.writeInt(strings.indexOf(group.id));
+                out.writeInt(strings.indexOf(group.name));
+                out.writeInt(strings.indexOf(group.description));
+                int flags = 0;
+                if (_groupIds.contains(group.id))
+                    flags |= FLAG_EXISTS;
+                if (group.enabled)
+                    flags |= FLAG_ENABLED;
+                out.writeByte(flags);
+            }
+
+            writeVarint(out, channels.size());
+            for (ChannelRecord channel : channels) {
+                out.writeInt(strings.indexOf(channel.id));
+                out.writeInt(strings.indexOf(channel.name));
+                out.writeInt(strings.indexOf(channel.description));
+                out.writeInt(strings.indexOf(channel.sound));
+                out.writeInt(strings.indexOf(channel.group));
+                int flags = 0;
+                if (_channelIds.contains(channel.id))
+                    flags |= FLAG_EXISTS;
+                if (channel.enabled)
+                    flags |= FLAG_ENABLED;
+                if (channel.lights)
+                    flags |= FLAG_LIGHTS;
+                if (channel.vibrationEnabled)
+                    flags |= FLAG_VIBRATION_ENABLED;
+                if (channel.hasAudioAttributes)
+                    flags |= FLAG_AUDIO_ATTRIBUTES;
+                out.writeShort(flags);
+                out.writeInt(channel.importance);
+                out.writeInt(channel.lockscreenVisibility);
+                out.writeInt(channel.lightColor);
+                out.writeInt(channel.audioContentType);
+                out.writeInt(channel.audioFlags);
+                out.writeInt(channel.audioUsage);
+                out.writeInt(channel.audioStreamType);
+            }
+
+            writeVarint(out, patternCount);
+            for (int i = 0; i < channels.size(); ++i) {
+                long[] pattern = channels.get(i).vibrationPattern;
+                if (pattern == null)
+                    continue;
+                writeVarint(out, i);
+                writeVarint(out, pattern.length);
+                for (long value : pattern)
+                    writeVarint(out, value);
+            }
+
+            String[] groupIds = new String[groups.size()];
+            for (int i = 0; i < groupIds.length; ++i)
+                groupIds[i] = groups.get(i).id;
+            writeTombstones(out, groupIds, _groupTombstones);
+            writeTombstones(out, channelIdsByIndex(channels.toArray(new ChannelRecord[0])), _channelTombstones);
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen when writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    void decode(byte[] data) throws IOException {
+        if (data.length < 4)
+            throw new EOFException();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a channel store file");
+        int version = in.readUnsignedShort();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported channel store version " + version);
+        boolean notificationsEnabled = (in.readUnsignedByte() & FLAG_NOTIFICATIONS_ENABLED) != 0;
+
+        int stringCount = readCount(in);
+        String[] strings = new String[stringCount + 1]; // index 0 stands for null
+        for (int i = 1; i <= stringCount; ++i)
+            strings[i] = in.readUTF();
+
+        int groupCount = readCount(in);
+        HashMap<String, GroupRecord> groups = new HashMap<>(groupCount * 2);
+        String[] groupIdsByIndex = new String[groupCount];
+        LinkedHashSet<String> groupIds = new LinkedHashSet<>();
+        for (int i = 0; i < groupCount; ++i) {
+            GroupRecord group = new GroupRecord(string(strings, in.readInt()));
+            group.name = string(strings, in.readInt());
+            group.description = string(strings, in.readInt());
+            int flags = in.readUnsignedByte();
+            group.enabled = (flags & FLAG_ENABLED) != 0;
+            groups.put(group.id, group);
+            groupIdsByIndex[i] = group.id;
+            if ((flags & FLAG_EXISTS) != 0)
+                groupIds.add(group.id);
+        }
+
+        int channelCount = readCount(in);
+        ChannelRecord[] channelArray = new ChannelRecord[channelCount];
+        HashMap<String, ChannelRecord> channels = new HashMap<>(channelCount * 2);
+        LinkedHashSet<String> channelIds = new LinkedHashSet<>();
+        for (int i = 0; i < channelCount; ++i) {
+            ChannelRecord channel = new ChannelRecord(string(strings, in.readInt()));
+            channel.name = string(strings, in.readInt());
+            channel.description = string(strings, in.readInt());
+            channel.sound = string(strings, in.readInt());
+            channel.group = string(strings, in.readInt());
+            int flags = in.readUnsignedShort();
+            channel.enabled = (flags & FLAG_ENABLED) != 0;
+            channel.lights = (flags & FLAG_LIGHTS) != 0;
+            channel.vibrationEnabled = (flags & FLAG_VIBRATION_ENABLED) != 0;
+            channel.hasAudioAttributes = (flags & FLAG_AUDIO_ATTRIBUTES) != 0;
+            channel.importance = in.readInt();
+            channel.lockscreenVisibility = in.readInt();
+            channel.lightColor = in.readInt();
+            channel.audioContentType = in.readInt();
+            channel.audioFlags = in.readInt();
+            channel.audioUsage = in.readInt();
+            channel.audioStreamType = in.readInt();
+            channelArray[i] = channel;
+            channels.put(channel.id, channel);
+            if ((flags & FLAG_EXISTS) != 0)
+                channelIds.add(channel.id);
+        }
+
+        int patternCount = readCount(in);
+        for (int i = 0; i < patternCount; ++i) {
+            int index = (int) readVarint(in);
+            if (index < 0 || index >= channelCount)
+                throw new IOException("Bad channel index " + index);
+            long[] pattern = new long[readCount(in)];
+            for (int j = 0; j < pattern.length; ++j)
+                pattern[j] = readVarint(in);
+            channelArray[index].vibrationPattern = pattern;
+        }
+
+        HashMap<String, Long> groupTombstones = new HashMap<>();
+        HashMap<String, Long> channelTombstones = new HashMap<>();
+        if (version >= 2) {
+            readTombstones(in, groupIdsByIndex, groupTombstones);
+            readTombstones(in, channelIdsByIndex(channelArray), channelTombstones);
+        }
+
+        if (in.readInt() != (int) crc.getValue())
+            throw new IOException("Channel store file is damaged");
+
+        _notificationsEnabled = notificationsEnabled;
+        _channels.clear();
+        _channels.putAll(channels);
+        _groups.clear();
+        _groups.putAll(groups);
+        _channelTombstones.clear();
+        _channelTombstones.putAll(channelTombstones);
+        _groupTombstones.clear();
+        _groupTombstones.putAll(groupTombstones);
+        _channelIds = Collections.unmodifiableSet(channelIds);
+        _groupIds = Collections.unmodifiableSet(groupIds);
+    }
+
+    // Writes the tombstones of the records, by the index of the record in the file
+    private static void writeTombstones(DataOutputStream out, String[] ids, HashMap<String, Long> tombstones) throws IOException {
+        int count = 0;
+        for (String id : ids) {
+            if (tombstones.containsKey(id))
+                ++count;
+        }
+        writeVarint(out, count);
+        for (int i = 0; i < ids.length; ++i) {
+            Long time = tombstones.get(ids[i]);
+            if (time != null) {
+                writeVarint(out, i);
+                writeVarint(out, time);
+            }
+        }
+    }
+
+    private static void readTombstones(DataInputStream in, String[] ids, HashMap<String, Long> tombstones) throws IOException {
+        int count = readCount(in);
+        for (int i = 0; i < count; ++i) {
+            int index = (int) readVarint(in);
+            if (index < 0 || index >= ids.length)
+                throw new IOException("Bad tombstone index " + index);
+            tombstones.put(ids[index], readVarint(in));
+        }
+    }
+
+    private static String[] channelIdsByIndex(ChannelRecord[] channels) {
+        String[] ids = new String[channels.length];
+        for (int i = 0; i < channels.length; ++i)
+            ids[i] = channels[i].id;
+        return ids;
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index < 0 || index >= strings.length)
+            throw new IOException("Bad string index " + index);
+        return strings[index];
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Channel store file too large");
+            byte[] data = new byte[(int) length];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0)
+                    throw new EOFException();
+                offset += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count < 0 || count > in.available())
+            throw new IOException("Bad count " + count); // every entry takes at least a byte
+        return (int) count;
+    }
+
+    private static final class StringTable {
+        final ArrayList<String> _list = new ArrayList<>();
+        final HashMap<String, Integer> _indexes = new HashMap<>();
+
+        void add(String string) {
+            if (string != null && !_indexes.containsKey(string)) {
+                _list.add(string);
+                _indexes.put(string, _list.size());
+            }
+        }
+
+        int indexOf(String string) {
+            return string == null ? 0 : _indexes.get(string);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.util.Arrays;
+
+/**
+ * The stored settings of a single channel, as plain values.
+ */
+public final class ChannelRecord {
+    public static final int IMPORTANCE_DEFAULT = 3; // NotificationManagerCompat.IMPORTANCE_DEFAULT
+    public static final int STREAM_DEFAULT = -1; // NotificationCompat.STREAM_DEFAULT
+
+    public final String id;
+    public String name;
+    public String description;
+    public boolean enabled = true;
+    public int importance = IMPORTANCE_DEFAULT;
+    public int lockscreenVisibility;
+    public String sound; // Uri as string, null or empty for no sound
+    public boolean lights;
+    public int lightColor;
+    public boolean vibrationEnabled;
+    public long[] vibrationPattern;
+    public String group;
+    public boolean hasAudioAttributes;
+    public int audioContentType;
+    public int audioFlags;
+    public int audioUsage;
+    public int audioStreamType = STREAM_DEFAULT;
+
+    public ChannelRecord(String id) {
+        this.id = id;
+    }
+
+    public ChannelRecord copy() {
+        ChannelRecord copy = new ChannelRecord(id);
+        copy.name = name;
+        copy.description = description;
+        copy.enabled = enabled;
+        copy.importance = importance;
+        copy.lockscreenVisibility = lockscreenVisibility;
+        copy.sound = sound;
+        copy.lights = lights;
+        copy.lightColor = lightColor;
+        copy.vibrationEnabled = vibrationEnabled;
+        copy.vibrationPattern = vibrationPattern == null ? null : vibrationPattern.clone();
+        copy.group = group;
+        copy.hasAudioAttributes = hasAudioAttributes;
+        copy.audioContentType = audioContentType;
+        copy.audioFlags = audioFlags;
+        copy.audioUsage = audioUsage;
+        copy.audioStreamType = audioStreamType;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChannelRecord that = (ChannelRecord) o;
+        return enabled == that.enabled
+                && importance == that.importance
+                && lockscreenVisibility == that.lockscreenVisibility
+                && lights == that.lights
+                && lightColor == that.lightColor
+                && vibrationEnabled == that.vibrationEnabled
+                && hasAudioAttributes == that.hasAudioAttributes
+                && audioContentType == that.audioContentType
+                && audioFlags == that.audioFlags
+                && audioUsage == that.audioUsage
+                && audioStreamType == that.audioStreamType
+                && equals(id, that.id)
+                && equals(name, that.name)
+                && equals(description, that.description)
+                && equals(sound, that.sound)
+                && equals(group, that.group)
+                && Arrays.equals(vibrationPattern, that.vibrationPattern);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + importance;
+        result = 31 * result + (enabled ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelRecord{"
+                + "id='" + id + '\''
+                + ", name=" + name
+                + ", enabled=" + enabled
+                + ", importance=" + importance
+                + ", group='" + group + '\''
+                + '}';
+    }
+
+    static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
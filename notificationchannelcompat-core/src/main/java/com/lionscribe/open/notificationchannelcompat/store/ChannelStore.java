@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage backend of the pre-Oreo channel registry.
+ * <p>
+ * A store keeps the settings of every channel and group that was ever created, together with
+ * the ids of those that currently exist. Deleting a channel or group only removes its id, so
+ * that its settings are reused if it is created again. The store remembers when it was deleted,
+ * its tombstone, so that settings kept for long can be purged.
+ * <p>
+ * Implementations must be safe to call from any thread, and must notify their listeners of
+ * every change, including changes not made through a {@link Transaction}.
+ */
+public interface ChannelStore {
+
+    /**
+     * Returns the state of the app wide notifications switch.
+     */
+    boolean isNotificationsEnabled();
+
+    /**
+     * Returns the ids of the existing channels. The returned set must not be modified.
+     */
+    Set<String> getChannelIds();
+
+    /**
+     * Returns the ids of the existing groups. The returned set must not be modified.
+     */
+    Set<String> getGroupIds();
+
+    /**
+     * Returns whether the channel exists.
+     */
+    boolean containsChannel(String channelId);
+
+    /**
+     * Returns whether the group exists.
+     */
+    boolean containsGroup(String groupId);
+
+    /**
+     * Returns a copy of the stored settings of the channel, or null if it was never created.
+     * Settings of deleted channels are returned as well.
+     */
+    ChannelRecord readChannel(String channelId);
+
+    /**
+     * Returns a copy of the stored settings of the group, or null if it was never created.
+     * Settings of deleted groups are returned as well.
+     */
+    GroupRecord readGroup(String groupId);
+
+    /**
+     * Returns the deletion time, in milliseconds since the epoch, of each deleted channel whose
+     * settings are kept. The time is 0 for channels deleted before the store kept tombstones.
+     */
+    Map<String, Long> getChannelTombstones();
+
+    /**
+     * Returns the deletion time of each deleted group whose settings are kept, like
+     * {@link #getChannelTombstones()}.
+     */
+    Map<String, Long> getGroupTombstones();
+
+    /**
+     * Starts a batch of changes, which are written together by {@link Transaction#apply()} or
+     * {@link Transaction#commit()}.
+     */
+    Transaction beginTransaction();
+
+    void addOnChangeListener(OnChangeListener listener);
+
+    void removeOnChangeListener(OnChangeListener listener);
+
+    /**
+     * A batch of changes. Later changes to the same channel or group replace earlier ones.
+     */
+    interface Transaction {
+        Transaction setNotificationsEnabled(boolean enabled);
+
+        /**
+         * Writes the settings of the channel, and adds it to the existing channels.
+         */
+        Transaction putChannel(ChannelRecord channel);
+
+        /**
+         * Removes the channel from the existing channels. Its settings are kept, and it gets a
+         * tombstone with the current time, unless it already has one.
+         */
+        Transaction removeChannel(String channelId);
+
+        /**
+         * Removes the channel together with its settings and tombstone.
+         */
+        Transaction purgeChannel(String channelId);
+
+        /**
+         * Writes the settings of the group, and adds it to the existing groups.
+         */
+        Transaction putGroup(GroupRecord group);
+
+        /**
+         * Removes the group from the existing groups. Its settings are kept, and it gets a
+         * tombstone with the current time, unless it already has one.
+         */
+        Transaction removeGroup(String groupId);
+
+        /**
+         * Removes the group together with its settings and tombstone.
+         */
+        Transaction purgeGroup(String groupId);
+
+        /**
+         * Makes the changes visible right away, and writes them to storage in the background.
+         */
+        void apply();
+
+        /**
+         * Makes the changes visible and writes them to storage before returning.
+         *
+         * @return true if the changes were written successfully
+         */
+        boolean commit();
+    }
+
+    interface OnChangeListener {
+        /**
+         * Called when the settings of the channel changed, or when it was created or deleted.
+         */
+        void onChannelChanged(String channelId);
+
+        /**
+         * Called when the settings of the group changed, or when it was created or deleted.
+         */
+        void onGroupChanged(String groupId);
+
+        /**
+         * Called when the notifications switch changed, or when the store changed in a way that
+         * can't be attributed to single channels or groups, so that anything read before may be
+         * out of date.
+         */
+        void onStoreChanged();
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.util.Map;
+
+/**
+ * Implemented by stores that can report their size and state for diagnostics, such as
+ * NotificationChannelManagerHelper.dump.
+ */
+public interface DiagnosableChannelStore {
+    /**
+     * Adds the statistics of the store to out. Keys are short, lower case and stable, and
+     * values are numbers, booleans or short strings. May read the whole store.
+     */
+    void collectDiagnostics(Map<String, Object> out);
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+/**
+ * The stored settings of a single channel group, as plain values.
+ */
+public final class GroupRecord {
+    public final String id;
+    public String name;
+    public String description;
+    public boolean enabled = true;
+
+    public GroupRecord(String id) {
+        this.id = id;
+    }
+
+    public GroupRecord copy() {
+        GroupRecord copy = new GroupRecord(id);
+        copy.name = name;
+        copy.description = description;
+        copy.enabled = enabled;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GroupRecord that = (GroupRecord) o;
+        return enabled == that.enabled
+                && ChannelRecord.equals(id, that.id)
+                && ChannelRecord.equals(name, that.name)
+                && ChannelRecord.equals(description, that.description);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id != null ? id.hashCode() : 0;
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (enabled ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupRecord{"
+                + "id='" + id + '\''
+                + ", name=" + name
+                + ", enabled=" + enabled
+                + '}';
+    }
+}
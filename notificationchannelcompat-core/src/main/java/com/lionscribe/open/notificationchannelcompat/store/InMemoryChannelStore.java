@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link ChannelStore} that only keeps its settings in memory. Useful for tests and
+ * benchmarks, and as the base of stores that persist a full snapshot.
+ */
+public class InMemoryChannelStore extends AbstractChannelStore implements DiagnosableChannelStore {
+    protected final HashMap<String, ChannelRecord> _channels = new HashMap<>();
+    protected final HashMap<String, GroupRecord> _groups = new HashMap<>();
+    protected final HashMap<String, Long> _channelTombstones = new HashMap<>(); // deletion times of deleted channels
+    protected final HashMap<String, Long> _groupTombstones = new HashMap<>();
+    protected Set<String> _channelIds = Collections.emptySet();
+    protected Set<String> _groupIds = Collections.emptySet();
+    protected boolean _notificationsEnabled = true;
+
+    /**
+     * Called with the lock held before any access, for subclasses that fill the store lazily.
+     */
+    protected void ensureLoaded() {
+    }
+
+    @Override
+    public synchronized boolean isNotificationsEnabled() {
+        ensureLoaded();
+        return _notificationsEnabled;
+    }
+
+    @Override
+    public synchronized Set<String> getChannelIds() {
+        ensureLoaded();
+        return _channelIds;
+    }
+
+    @Override
+    public synchronized Set<String> getGroupIds() {
+        ensureLoaded();
+        return _groupIds;
+    }
+
+    @Override
+    public synchronized boolean containsChannel(String channelId) {
+        ensureLoaded();
+        return _channelIds.contains(channelId);
+    }
+
+    @Override
+    public synchronized boolean containsGroup(String groupId) {
+        ensureLoaded();
+        return _groupIds.contains(groupId);
+    }
+
+    @Override
+    public synchronized ChannelRecord readChannel(String channelId) {
+        ensureLoaded();
+        ChannelRecord channel = _channels.get(channelId);
+        return channel == null ? null : channel.copy();
+    }
+
+    @Override
+    public synchronized GroupRecord readGroup(String groupId) {
+        ensureLoaded();
+        GroupRecord group = _groups.get(groupId);
+        return group == null ? null : group.copy();
+    }
+
+    @Override
+    public synchronized Map<String, Long> getChannelTombstones() {
+        ensureLoaded();
+        return tombstones(_channels.keySet(), _channelIds, _channelTombstones);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getGroupTombstones() {
+        ensureLoaded();
+        return tombstones(_groups.keySet(), _groupIds, _groupTombstones);
+    }
+
+    private static Map<String, Long> tombstones(Set<String> stored, Set<String> existing, Map<String, Long> times) {
+        HashMap<String, Long> tombstones = new HashMap<>();
+        for (String id : stored) {
+            if (!existing.contains(id)) {
+                Long time = times.get(id);
+                tombstones.put(id, time != null ? time : 0L);
+            }
+        }
+        return tombstones;
+    }
+
+    @Override
+    protected synchronized boolean write(PendingTransaction transaction, boolean sync) {
+        ensureLoaded();
+        if (transaction.getNotificationsEnabled() != null)
+            _notificationsEnabled = transaction.getNotificationsEnabled();
+
+        if (!transaction.getChannels().isEmpty() || !transaction.getPurgedChannels().isEmpty()) {
+            LinkedHashSet<String> channelIds = new LinkedHashSet<>(_channelIds);
+            for (Map.Entry<String, ChannelRecord> entry : transaction.getChannels().entrySet()) {
+                String channelId = entry.getKey();
+                if (entry.getValue() == null) {
+                    channelIds.remove(channelId);
+                    if (_channels.containsKey(channelId) && !_channelTombstones.containsKey(channelId))
+                        _channelTombstones.put(channelId, transaction.getTime());
+                } else {
+                    _channels.put(channelId, entry.getValue().copy());
+                    _channelTombstones.remove(channelId);
+                    channelIds.add(channelId);
+                }
+            }
+            for (String channelId : transaction.getPurgedChannels()) {
+                channelIds.remove(channelId);
+                _channels.remove(channelId);
+                _channelTombstones.remove(channelId);
+            }
+            _channelIds = Collections.unmodifiableSet(channelIds);
+        }
+
+        if (!transaction.getGroups().isEmpty() || !transaction.getPurgedGroups().isEmpty()) {
+            LinkedHashSet<String> groupIds = new LinkedHashSet<>(_groupIds);
+            for (Map.Entry<String, GroupRecord> entry : transaction.getGroups().entrySet()) {
+                String groupId = entry.getKey();
+                if (entry.getValue() == null) {
+                    groupIds.remove(groupId);
+                    if (_groups.containsKey(groupId) && !_groupTombstones.containsKey(groupId))
+                        _groupTombstones.put(groupId, transaction.getTime());
+                } else {
+                    _groups.put(groupId, entry.getValue().copy());
+                    _groupTombstones.remove(groupId);
+                    groupIds.add(groupId);
+                }
+            }
+            for (String groupId : transaction.getPurgedGroups()) {
+                groupIds.remove(groupId);
+                _groups.remove(groupId);
+                _groupTombstones.remove(groupId);
+            }
+            _groupIds = Collections.unmodifiableSet(groupIds);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void collectDiagnostics(Map<String, Object> out) {
+        ensureLoaded();
+        out.put("channels", _channelIds.size());
+        out.put("groups", _groupIds.size());
+        out.put("stored_channels", _channels.size());
+        out.put("stored_groups", _groups.size());
+        out.put("orphaned_channels", _channels.size() - _channelIds.size()); // settings kept of deleted channels
+        out.put("orphaned_groups", _groups.size() - _groupIds.size());
+        out.put("channel_tombstones", _channelTombstones.size());
+        out.put("group_tombstones", _groupTombstones.size());
+    }
+}
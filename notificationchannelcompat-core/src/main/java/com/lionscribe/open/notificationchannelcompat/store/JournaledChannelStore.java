@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.lionscribe.open.notificationchannelcompat.store.VibrationPatterns.readVarint;
+import static com.lionscribe.open.notificationchannelcompat.store.VibrationPatterns.writeVarint;
+
+/**
+ * A {@link BinaryFileChannelStore} that does not rewrite its file on every change. Each
+ * transaction is appended as a small entry to a journal next to the store file, and once the
+ * journal grows past a limit, it is folded into the store file in the background.
+ * <p>
+ * {@link Transaction#apply()} only queues the entry, which the background writer appends, so
+ * toggling a setting never waits on the disk. {@link Transaction#commit()} appends and syncs
+ * the entry before returning, which is still far less than rewriting all channels.
+ * <p>
+ * The journal starts with an int magic 'NCCJ' and a short version, and is followed by its
+ * entries, all numbers big-endian:
+ * <pre>
+ * int     payload length
+ *         payload: varint time, byte switch (0 unchanged, 1 off, 2 on),
+ *         varint channel count, then each as byte op, id, and for puts the channel,
+ *         varint purged channel count, then each id, and the same for groups.
+ *         Strings are a byte 0 for null, or 1 and modified UTF-8.
+ * int     CRC32 of the payload
+ * </pre>
+ * To fold, the journal is first renamed aside, so that new entries go to a new journal while
+ * the store file is written, and is only deleted once the store file is in place. Entries are
+ * absolute states, so replaying an entry already in the store file does no harm, and a torn
+ * entry at the end of the journal, from a crash while appending, is dropped. A journal with
+ * an unknown header is treated as empty, the same as an unknown store file.
+ */
+public class JournaledChannelStore extends BinaryFileChannelStore {
+    /**
+     * The default size the journal may grow to before it is folded into the store file.
+     */
+    public static final int DEFAULT_MAX_JOURNAL_BYTES = 64 * 1024;
+
+    static final int JOURNAL_MAGIC = 0x4E43_434A; // "NCCJ"
+    static final int JOURNAL_VERSION = 1;
+    static final int JOURNAL_HEADER_SIZE = 4 + 2;
+
+    private static final int OP_PUT = 0;
+    private static final int OP_REMOVE = 1;
+
+    private final File _journalFile;
+    private final File _oldJournalFile;
+    private final int _maxJournalBytes;
+    private final Object _journalLock = new Object();
+    private boolean _replayed;
+    private boolean _journalExisted;
+    private FileOutputStream _journal; // guarded by _journalLock, opened on first append
+    private final ArrayList<byte[]> _queue = new ArrayList<>(); // guarded by _journalLock
+    private boolean _flushPending; // guarded by _journalLock
+    private boolean _foldPending; // guarded by _journalLock
+    private long _journalBytes; // guarded by _journalLock, known once the journal is opened
+    private int _folds; // guarded by _journalLock
+
+    public JournaledChannelStore(File file) {
+        this(file, DEFAULT_MAX_JOURNAL_BYTES);
+    }
+
+    /**
+     * @param maxJournalBytes the size the journal may grow to before it is folded into the
+     *                        store file
+     */
+    public JournaledChannelStore(File file, int maxJournalBytes) {
+        super(file, false, null); // a mapped index would not see the journal
+        _journalFile = new File(file.getPath() + ".journal");
+        _oldJournalFile = new File(file.getPath() + ".journal.old");
+        _maxJournalBytes = maxJournalBytes;
+    }
+
+    @Override
+    public synchronized boolean exists() {
+        return super.exists() || _journalExisted;
+    }
+
+    @Override
+    protected void ensureLoaded() {
+        super.ensureLoaded();
+        if (_replayed)
+            return;
+        _replayed = true;
+        // An old journal is left only when a fold did not finish, and is older than the journal
+        if (_oldJournalFile.exists())
+            replay(_oldJournalFile);
+        if (_journalFile.exists())
+            replay(_journalFile);
+    }
+
+    // Replays the journal into memory
+    private void replay(File journal) {
+        _journalExisted = true;
+        long length = 0;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(journal));
+            try {
+                if (in.readInt() != JOURNAL_MAGIC || in.readUnsignedShort() != JOURNAL_VERSION)
+                    throw new IOException("Unsupported journal");
+                length = JOURNAL_HEADER_SIZE;
+                while (true) {
+                    byte[] payload = readEntry(in);
+                    if (payload == null)
+                        break;
+                    applyInMemory(decodeEntry(payload));
+                    length += 4 + payload.length + 4;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Keeps what was replayed so far
+        }
+        if (length < journal.length())
+            truncate(journal, length); // so that new entries do not follow a torn one
+    }
+
+    private static byte[] journalHeader() {
+        byte[] header = new byte[JOURNAL_HEADER_SIZE];
+        putInt(header, 0, JOURNAL_MAGIC);
+        header[4] = (byte) (JOURNAL_VERSION >>> 8);
+        header[5] = (byte) JOURNAL_VERSION;
+        return header;
+    }
+
+    private static byte[] readEntry(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > in.available())
+            return null;
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (in.readInt() != (int) crc.getValue())
+            return null;
+        return payload;
+    }
+
+    private static void truncate(File file, long length) {
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                out.setLength(length);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Replayed the same way next time
+        }
+    }
+
+    @Override
+    boolean persist(PendingTransaction transaction, boolean sync) {
+        byte[] entry = encodeEntry(transaction);
+        synchronized (_journalLock) {
+            _queue.add(entry);
+            if (sync)
+                return flush(true);
+            if (_flushPending)
+                return true; // the pending flush will append this entry as well
+            _flushPending = true;
+        }
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (_journalLock) {
+                    flush(false);
+                }
+            }
+        });
+        return true;
+    }
+
+    // Appends the queued entries to the journal, and schedules a fold once it is too large
+    private boolean flush(boolean sync) {
+        _flushPending = false;
+        boolean result = true;
+        if (!_queue.isEmpty()) {
+            try {
+                if (_journal == null) {
+                    _journal = new FileOutputStream(_journalFile, true);
+                    _journalBytes = _journalFile.length();
+                    if (_journalBytes == 0) {
+                        _journal.write(journalHeader());
+                        _journalBytes = JOURNAL_HEADER_SIZE;
+                    }
+                }
+                for (byte[] entry : _queue) {
+                    _journal.write(entry);
+                    _journalBytes += entry.length;
+                }
+                if (sync)
+                    _journal.getFD().sync();
+            } catch (IOException e) {
+                closeJournal();
+                result = false;
+            }
+            _queue.clear();
+        }
+        if (_journalBytes > _maxJournalBytes && !_foldPending) {
+            _foldPending = true;
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    fold();
+                }
+            });
+        }
+        return result;
+    }
+
+    private void closeJournal() {
+        if (_journal != null) {
+            try {
+                _journal.close();
+            } catch (IOException ignored) {
+            }
+            _journal = null;
+        }
+    }
+
+    /**
+     * Folds the journal into the store file now, on the calling thread.
+     *
+     * @return true if the store file was written
+     */
+    public boolean fold() {
+        synchronized (this) {
+            ensureLoaded(); // the journal must be replayed before it goes away
+        }
+        synchronized (_journalLock) {
+            _foldPending = false;
+            flush(false);
+            closeJournal();
+            if (_oldJournalFile.exists()) {
+                // An earlier fold did not finish, so its journal can't be set aside again, and
+                // this fold is done without letting new entries in
+                if (!writeFile())
+                    return false;
+                _journalFile.delete();
+                _oldJournalFile.delete();
+                _journalBytes = 0;
+                ++_folds;
+                return true;
+            }
+            if (_journalFile.exists() && !_journalFile.renameTo(_oldJournalFile))
+                return false;
+            _journalBytes = 0;
+        }
+        if (!writeFile())
+            return false; // the old journal stays, and is replayed or folded again
+        _oldJournalFile.delete();
+        synchronized (_journalLock) {
+            ++_folds;
+        }
+        return true;
+    }
+
+    @Override
+    public void collectDiagnostics(Map<String, Object> out) {
+        super.collectDiagnostics(out);
+        synchronized (_journalLock) {
+            out.put("journal_bytes", _journalBytes);
+            out.put("journal_queued", _queue.size());
+            out.put("journal_folds", _folds);
+            out.put("journal_max_bytes", _maxJournalBytes);
+        }
+    }
+
+    private static byte[] encodeEntry(PendingTransaction transaction) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0); // the payload length, filled in below
+            writeVarint(out, transaction.getTime());
+            Boolean notificationsEnabled = transaction.getNotificationsEnabled();
+            out.writeByte(notificationsEnabled == null ? 0 : notificationsEnabled ? 2 : 1);
+
+            writeVarint(out, transaction.getChannels().size());
+            for (Map.Entry<String, ChannelRecord> entry : transaction.getChannels().entrySet()) {
+                ChannelRecord channel = entry.getValue();
+                out.writeByte(channel != null ? OP_PUT : OP_REMOVE);
+                writeString(out, entry.getKey());
+                if (channel != null)
+                    writeChannel(out, channel);
+            }
+            writeVarint(out, transaction.getPurgedChannels().size());
+            for (String channelId : transaction.getPurgedChannels())
+                writeString(out, channelId);
+
+            writeVarint(out, transaction.getGroups().size());
+            for (Map.Entry<String, GroupRecord> entry : transaction.getGroups().entrySet()) {
+                GroupRecord group = entry.getValue();
+                out.writeByte(group != null ? OP_PUT : OP_REMOVE);
+                writeString(out, entry.getKey());
+                if (group != null) {
+                    writeString(out, group.name);
+                    writeString(out, group.description);
+                    out.writeBoolean(group.enabled);
+                }
+            }
+            writeVarint(out, transaction.getPurgedGroups().size());
+            for (String groupId : transaction.getPurgedGroups())
+                writeString(out, groupId);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen when writing to memory
+        }
+        byte[] data = bytes.toByteArray();
+        int length = data.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(data, 4, length);
+        byte[] entry = new byte[data.length + 4];
+        System.arraycopy(data, 0, entry, 0, data.length);
+        putInt(entry, 0, length);
+        putInt(entry, data.length, (int) crc.getValue());
+        return entry;
+    }
+
+    private PendingTransaction decodeEntry(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        PendingTransaction transaction = new PendingTransaction(this, readVarint(in));
+        int notificationsEnabled = in.readUnsignedByte();
+        if (notificationsEnabled != 0)
+            transaction.setNotificationsEnabled(notificationsEnabled == 2);
+
+        int channelCount = readCount(in);
+        for (int i = 0; i < channelCount; ++i) {
+            int op = in.readUnsignedByte();
+            String channelId = readString(in);
+            if (op == OP_PUT)
+                transaction.putChannel(readChannel(in, channelId));
+            else
+                transaction.removeChannel(channelId);
+        }
+        int purgedChannelCount = readCount(in);
+        for (int i = 0; i < purgedChannelCount; ++i)
+            transaction.purgeChannel(readString(in));
+
+        int groupCount = readCount(in);
+        for (int i = 0; i < groupCount; ++i) {
+            int op = in.readUnsignedByte();
+            String groupId = readString(in);
+            if (op == OP_PUT) {
+                GroupRecord group = new GroupRecord(groupId);
+                group.name = readString(in);
+                group.description = readString(in);
+                group.enabled = in.readBoolean();
+                transaction.putGroup(group);
+            } else {
+                transaction.removeGroup(groupId);
+            }
+        }
+        int purgedGroupCount = readCount(in);
+        for (int i = 0; i < purgedGroupCount; ++i)
+            transaction.purgeGroup(readString(in));
+        return transaction;
+    }
+
+    private static void writeChannel(DataOutputStream out, ChannelRecord channel) throws IOException {
+        writeString(out, channel.name);
+        writeString(out, channel.description);
+        writeString(out, channel.sound);
+        writeString(out, channel.group);
+        out.writeBoolean(channel.enabled);
+        out.writeInt(channel.importance);
+        out.writeInt(channel.lockscreenVisibility);
+        out.writeBoolean(channel.lights);
+        out.writeInt(channel.lightColor);
+        out.writeBoolean(channel.vibrationEnabled);
+        if (channel.vibrationPattern == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, channel.vibrationPattern.length + 1);
+            for (long value : channel.vibrationPattern)
+                writeVarint(out, value);
+        }
+        out.writeBoolean(channel.hasAudioAttributes);
+        out.writeInt(channel.audioContentType);
+        out.writeInt(channel.audioFlags);
+        out.writeInt(channel.audioUsage);
+        out.writeInt(channel.audioStreamType);
+    }
+
+    private static ChannelRecord readChannel(DataInputStream in, String channelId) throws IOException {
+        ChannelRecord channel = new ChannelRecord(channelId);
+        channel.name = readString(in);
+        channel.description = readString(in);
+        channel.sound = readString(in);
+        channel.group = readString(in);
+        channel.enabled = in.readBoolean();
+        channel.importance = in.readInt();
+        channel.lockscreenVisibility = in.readInt();
+        channel.lights = in.readBoolean();
+        channel.lightColor = in.readInt();
+        channel.vibrationEnabled = in.readBoolean();
+        int patternLength = readCount(in); // 0 for no pattern, else its length plus one
+        if (patternLength > 0) {
+            long[] pattern = new long[patternLength - 1];
+            for (int i = 0; i < pattern.length; ++i)
+                pattern[i] = readVarint(in);
+            channel.vibrationPattern = pattern;
+        }
+        channel.hasAudioAttributes = in.readBoolean();
+        channel.audioContentType = in.readInt();
+        channel.audioFlags = in.readInt();
+        channel.audioUsage = in.readInt();
+        channel.audioStreamType = in.readInt();
+        return channel;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readUnsignedByte() == 0 ? null : in.readUTF();
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count < 0 || count > in.available())
+            throw new IOException("Bad count " + count); // every entry takes at least a byte
+        return (int) count;
+    }
+
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Read-only, memory-mapped index of a {@link BinaryFileChannelStore}, to look up single channels
+ * and groups without reading the whole store.
+ * <p>
+ * Channels and groups are kept as fixed-size entries sorted by id, so a lookup is a binary
+ * search, which only touches the pages it reads, and decodes nothing but the one entry found.
+ * File layout, all numbers big-endian:
+ * <pre>
+ * header  int magic 'NCCI', short version, short flags (notifications enabled),
+ *         int CRC of the store file, int channel count, int group count,
+ *         int channels offset, int groups offset, int blobs offset
+ * channel {@value #CHANNEL_ENTRY_SIZE} bytes, sorted by id
+ *         int id, int name, int description, int sound, int group, int vibration pattern
+ *         (blob offsets, -1 for null), short flags, short unused, int importance,
+ *         int lockscreenVisibility, int lightColor, int audioContentType, int audioFlags,
+ *         int audioUsage, int audioStreamType
+ * group   {@value #GROUP_ENTRY_SIZE} bytes, sorted by id
+ *         int id, int name, int description (blob offsets), short flags, short unused
+ * blobs   strings as int length and UTF-8 bytes, vibration patterns as int length and longs
+ * </pre>
+ * The index is only used while it matches the CRC of the store file it was written with.
+ */
+final class MappedChannelIndex {
+    static final int MAGIC = 0x4E43_4349; // "NCCI"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2 + 2 + 6 * 4;
+    static final int CHANNEL_ENTRY_SIZE = 6 * 4 + 2 + 2 + 7 * 4;
+    static final int GROUP_ENTRY_SIZE = 3 * 4 + 2 + 2;
+
+    private static final int FLAG_NOTIFICATIONS_ENABLED = 1;
+    private static final int FLAG_EXISTS = 1;
+    private static final int FLAG_ENABLED = 1 << 1;
+    private static final int FLAG_LIGHTS = 1 << 2;
+    private static final int FLAG_VIBRATION_ENABLED = 1 << 3;
+    private static final int FLAG_AUDIO_ATTRIBUTES = 1 << 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer _buffer;
+    private final int _channelCount;
+    private final int _groupCount;
+    private final int _channelsOffset;
+    private final int _groupsOffset;
+
+    private MappedChannelIndex(ByteBuffer buffer) {
+        _buffer = buffer;
+        _channelCount = buffer.getInt(12);
+        _groupCount = buffer.getInt(16);
+        _channelsOffset = buffer.getInt(20);
+        _groupsOffset = buffer.getInt(24);
+    }
+
+    /**
+     * Maps the index file, or returns null if it's missing, damaged, or was not written with
+     * the current version of the store file.
+     *
+     * @param dataCrc the CRC stored at the end of the store file
+     */
+    static MappedChannelIndex open(File indexFile, int dataCrc) {
+        if (!indexFile.exists())
+            return null;
+        try {
+            RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+            try {
+                long length = file.length();
+                if (length < HEADER_SIZE || length > Integer.MAX_VALUE)
+                    return null;
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION || buffer.getInt(8) != dataCrc)
+                    return null;
+                MappedChannelIndex index = new MappedChannelIndex(buffer);
+                if (index._channelCount < 0 || index._groupCount < 0
+                        || index._channelsOffset + (long) index._channelCount * CHANNEL_ENTRY_SIZE > length
+                        || index._groupsOffset + (long) index._groupCount * GROUP_ENTRY_SIZE > length)
+                    return null;
+                return index; // the mapping stays valid after the file is closed
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    boolean isNotificationsEnabled() {
+        return (_buffer.getShort(6) & FLAG_NOTIFICATIONS_ENABLED) != 0;
+    }
+
+    boolean containsChannel(String channelId) {
+        int entry = find(channelId, _channelsOffset, _channelCount, CHANNEL_ENTRY_SIZE);
+        return entry >= 0 && (_buffer.getShort(entry + 24) & FLAG_EXISTS) != 0;
+    }
+
+    boolean containsGroup(String groupId) {
+        int entry = find(groupId, _groupsOffset, _groupCount, GROUP_ENTRY_SIZE);
+        return entry >= 0 && (_buffer.getShort(entry + 12) & FLAG_EXISTS) != 0;
+    }
+
+    ChannelRecord readChannel(String channelId) {
+        int entry = find(channelId, _channelsOffset, _channelCount, CHANNEL_ENTRY_SIZE);
+        if (entry < 0)
+            return null;
+        ByteBuffer buffer = _buffer;
+        ChannelRecord channel = new ChannelRecord(channelId);
+        channel.name = readString(buffer.getInt(entry + 4));
+        channel.description = readString(buffer.getInt(entry + 8));
+        channel.sound = readString(buffer.getInt(entry + 12));
+        channel.group = readString(buffer.getInt(entry + 16));
+        channel.vibrationPattern = readLongs(buffer.getInt(entry + 20));
+        int flags = buffer.getShort(entry + 24);
+        channel.enabled = (flags & FLAG_ENABLED) != 0;
+        channel.lights = (flags & FLAG_LIGHTS) != 0;
+        channel.vibrationEnabled = (flags & FLAG_VIBRATION_ENABLED) != 0;
+        channel.hasAudioAttributes = (flags & FLAG_AUDIO_ATTRIBUTES) != 0;
+        channel.importance = buffer.getInt(entry + 28);
+        channel.lockscreenVisibility = buffer.getInt(entry + 32);
+        channel.lightColor = buffer.getInt(entry + 36);
+        channel.audioContentType = buffer.getInt(entry + 40);
+        channel.audioFlags = buffer.getInt(entry + 44);
+        channel.audioUsage = buffer.getInt(entry + 48);
+        channel.audioStreamType = buffer.getInt(entry + 52);
+        return channel;
+    }
+
+    GroupRecord readGroup(String groupId) {
+        int entry = find(groupId, _groupsOffset, _groupCount, GROUP_ENTRY_SIZE);
+        if (entry < 0)
+            return null;
+        GroupRecord group = new GroupRecord(groupId);
+        group.name = readString(_buffer.getInt(entry + 4));
+        group.description = readString(_buffer.getInt(entry + 8));
+        group.enabled = (_buffer.getShort(entry + 12) & FLAG_ENABLED) != 0;
+        return group;
+    }
+
+    // Returns the offset of the entry with this id, or -1
+    private int find(String id, int offset, int count, int entrySize) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = offset + mid * entrySize;
+            int cmp = readString(_buffer.getInt(entry)).compareTo(id);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return entry;
+        }
+        return -1;
+    }
+
+    private String readString(int offset) {
+        if (offset < 0)
+            return null;
+        byte[] bytes = new byte[_buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; ++i)
+            bytes[i] = _buffer.get(offset + 4 + i); // absolute reads, the buffer position is never moved
+        return new String(bytes, UTF_8);
+    }
+
+    private long[] readLongs(int offset) {
+        if (offset < 0)
+            return null;
+        long[] values = new long[_buffer.getInt(offset)];
+        for (int i = 0; i < values.length; ++i)
+            values[i] = _buffer.getLong(offset + 4 + i * 8);
+        return values;
+    }
+
+    /**
+     * Encodes the index of the given channels and groups.
+     *
+     * @param dataCrc the CRC of the store file written with it
+     */
+    static byte[] encode(boolean notificationsEnabled, Collection<ChannelRecord> channels, Set<String> channelIds,
+                         Collection<GroupRecord> groups, Set<String> groupIds, int dataCrc) {
+        ArrayList<ChannelRecord> sortedChannels = new ArrayList<>(channels);
+        Collections.sort(sortedChannels, new Comparator<ChannelRecord>() {
+            @Override
+            public int compare(ChannelRecord obj1, ChannelRecord obj2) {
+                return obj1.id.compareTo(obj2.id);
+            }
+        });
+        ArrayList<GroupRecord> sortedGroups = new ArrayList<>(groups);
+        Collections.sort(sortedGroups, new Comparator<GroupRecord>() {
+            @Override
+            public int compare(GroupRecord obj1, GroupRecord obj2) {
+                return obj1.id.compareTo(obj2.id);
+            }
+        });
+
+        int channelsOffset = HEADER_SIZE;
+        int groupsOffset = channelsOffset + sortedChannels.size() * CHANNEL_ENTRY_SIZE;
+        Blobs blobs = new Blobs(groupsOffset + sortedGroups.size() * GROUP_ENTRY_SIZE);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(blobs._offset + sortedChannels.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(notificationsEnabled ? FLAG_NOTIFICATIONS_ENABLED : 0);
+            out.writeInt(dataCrc);
+            out.writeInt(sortedChannels.size());
+            out.writeInt(sortedGroups.size());
+            out.writeInt(channelsOffset);
+            out.writeInt(groupsOffset);
+            out.writeInt(blobs._offset);
+
+            for (ChannelRecord channel : sortedChannels) {
+                out.writeInt(blobs.string(channel.id));
+                out.writeInt(blobs.string(channel.name));
+                out.writeInt(blobs.string(channel.description));
+                out.writeInt(blobs.string(channel.sound));
+                out.writeInt(blobs.string(channel.group));
+                out.writeInt(blobs.longs(channel.vibrationPattern));
+                int flags = 0;
+                if (channelIds.contains(channel.id))
+                    flags |= FLAG_EXISTS;
+                if (channel.enabled)
+                    flags |= FLAG_ENABLED;
+                if (channel.lights)
+                    flags |= FLAG_LIGHTS;
+                if (channel.vibrationEnabled)
+                    flags |= FLAG_VIBRATION_ENABLED;
+                if (channel.hasAudioAttributes)
+                    flags |= FLAG_AUDIO_ATTRIBUTES;
+                out.writeShort(flags);
+                out.writeShort(0);
+                out.writeInt(channel.importance);
+                out.writeInt(channel.lockscreenVisibility);
+                out.writeInt(channel.lightColor);
+                out.writeInt(channel.audioContentType);
+                out.writeInt(channel.audioFlags);
+                out.writeInt(channel.audioUsage);
+                out.writeInt(channel.audioStreamType);
+            }
+
+            for (GroupRecord group : sortedGroups) {
+                out.writeInt(blobs.string(group.id));
+                out.writeInt(blobs.string(group.name));
+                out.writeInt(blobs.string(group.description));
+                int flags = 0;
+                if (groupIds.contains(group.id))
+                    flags |= FLAG_EXISTS;
+                if (group.enabled)
+                    flags |= FLAG_ENABLED;
+                out.writeShort(flags);
+                out.writeShort(0);
+            }
+
+            blobs._bytes.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen when writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class Blobs {
+        final int _offset;
+        final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+        final DataOutputStream _out = new DataOutputStream(_bytes);
+        final HashMap<String, Integer> _strings = new HashMap<>();
+
+        Blobs(int offset) {
+            _offset = offset;
+        }
+
+        int string(String string) throws IOException {
+            if (string == null)
+                return -1;
+            Integer offset = _strings.get(string);
+            if (offset == null) {
+                offset = _offset + _out.size();
+                byte[] utf8 = string.getBytes(UTF_8);
+                _out.writeInt(utf8.length);
+                _out.write(utf8);
+                _strings.put(string, offset);
+            }
+            return offset;
+        }
+
+        int longs(long[] values) throws IOException {
+            if (values == null)
+                return -1;
+            int offset = _offset + _out.size();
+            _out.writeInt(values.length);
+            for (long value : values)
+                _out.writeLong(value);
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ChannelStore} that splits the channels into shards, one file per group and one for
+ * the channels without group, so that posting to a channel only reads the shard of its group,
+ * and a change only rewrites the shards it touches.
+ * <p>
+ * A small root manifest keeps the switch, the groups, and for each channel only its id, group
+ * and whether it exists, which is all that is needed to list channels and find their shard.
+ * The manifest and the shards are {@link BinaryFileChannelStore} files, and share a single
+ * background writer.
+ * <p>
+ * Shards are named by a hash of the group id, so two groups may share a shard, which only
+ * costs reading a few extra channels. Within a write, channels are first written to their
+ * new shard, then to the manifest, and only then removed from a shard they moved out of, so a
+ * concurrent reader always finds them.
+ */
+public class ShardedChannelStore extends AbstractChannelStore implements DiagnosableChannelStore {
+    private static final String MANIFEST_NAME = "manifest.nccs";
+    private static final String UNGROUPED_SHARD = "ungrouped";
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String SHARD_SUFFIX = ".nccs";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File _directory;
+    private final BinaryFileChannelStore _manifest;
+    private final HashMap<String, BinaryFileChannelStore> _shards = new HashMap<>(); // by shard name, guarded by itself
+    private final ExecutorService _writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ChannelStoreWriter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @param directory the directory of the manifest and shards, which is created if needed
+     */
+    public ShardedChannelStore(File directory) {
+        _directory = directory;
+        _manifest = new BinaryFileChannelStore(new File(directory, MANIFEST_NAME), false, _writer);
+    }
+
+    /**
+     * Returns whether the manifest was there when first read. Useful to decide whether
+     * settings should be imported from a previous store.
+     */
+    public boolean exists() {
+        return _manifest.exists();
+    }
+
+    /**
+     * Copies the switch and all existing channels and groups of the source store into this
+     * store, and writes them before returning.
+     */
+    public boolean importFrom(ChannelStore source) {
+        Transaction transaction = beginTransaction();
+        transaction.setNotificationsEnabled(source.isNotificationsEnabled());
+        for (String groupId : source.getGroupIds()) {
+            GroupRecord group = source.readGroup(groupId);
+            if (group != null)
+                transaction.putGroup(group);
+        }
+        for (String channelId : source.getChannelIds()) {
+            ChannelRecord channel = source.readChannel(channelId);
+            if (channel != null)
+                transaction.putChannel(channel);
+        }
+        return transaction.commit();
+    }
+
+    @Override
+    public boolean isNotificationsEnabled() {
+        return _manifest.isNotificationsEnabled();
+    }
+
+    @Override
+    public Set<String> getChannelIds() {
+        return _manifest.getChannelIds();
+    }
+
+    @Override
+    public Set<String> getGroupIds() {
+        return _manifest.getGroupIds();
+    }
+
+    @Override
+    public boolean containsChannel(String channelId) {
+        return _manifest.containsChannel(channelId);
+    }
+
+    @Override
+    public boolean containsGroup(String groupId) {
+        return _manifest.containsGroup(groupId);
+    }
+
+    @Override
+    public ChannelRecord readChannel(String channelId) {
+        ChannelRecord entry = _manifest.readChannel(channelId);
+        return entry == null ? null : shard(entry.group).readChannel(channelId);
+    }
+
+    @Override
+    public GroupRecord readGroup(String groupId) {
+        return _manifest.readGroup(groupId);
+    }
+
+    @Override
+    public Map<String, Long> getChannelTombstones() {
+        return _manifest.getChannelTombstones();
+    }
+
+    @Override
+    public Map<String, Long> getGroupTombstones() {
+        return _manifest.getGroupTombstones();
+    }
+
+    @Override
+    protected synchronized boolean write(PendingTransaction transaction, boolean sync) {
+        _directory.mkdirs();
+        Transaction manifest = _manifest.beginTransaction();
+        HashMap<BinaryFileChannelStore, Transaction> puts = new HashMap<>();
+        HashMap<BinaryFileChannelStore, Transaction> removals = new HashMap<>();
+
+        if (transaction.getNotificationsEnabled() != null)
+            manifest.setNotificationsEnabled(transaction.getNotificationsEnabled());
+
+        for (Map.Entry<String, ChannelRecord> entry : transaction.getChannels().entrySet()) {
+            String channelId = entry.getKey();
+            ChannelRecord channel = entry.getValue();
+            if (channel == null) {
+                manifest.removeChannel(channelId); // the shard keeps the settings
+                continue;
+            }
+            BinaryFileChannelStore shard = shard(channel.group);
+            ChannelRecord previous = _manifest.readChannel(channelId);
+            if (previous != null && shard(previous.group) != shard)
+                transaction(removals, shard(previous.group)).purgeChannel(channelId);
+            transaction(puts, shard).putChannel(channel);
+            ChannelRecord manifestEntry = new ChannelRecord(channelId);
+            manifestEntry.group = channel.group;
+            manifest.putChannel(manifestEntry);
+        }
+        for (String channelId : transaction.getPurgedChannels()) {
+            ChannelRecord previous = _manifest.readChannel(channelId);
+            if (previous != null)
+                transaction(removals, shard(previous.group)).purgeChannel(channelId);
+            manifest.purgeChannel(channelId);
+        }
+
+        for (Map.Entry<String, GroupRecord> entry : transaction.getGroups().entrySet()) {
+            if (entry.getValue() == null)
+                manifest.removeGroup(entry.getKey());
+            else
+                manifest.putGroup(entry.getValue());
+        }
+        for (String groupId : transaction.getPurgedGroups())
+            manifest.purgeGroup(groupId);
+
+        boolean result = true;
+        for (Transaction shardTransaction : puts.values())
+            result &= finish(shardTransaction, sync);
+        result &= finish(manifest, sync);
+        for (Transaction shardTransaction : removals.values())
+            result &= finish(shardTransaction, sync);
+        return result;
+    }
+
+    private static Transaction transaction(HashMap<BinaryFileChannelStore, Transaction> transactions, BinaryFileChannelStore shard) {
+        Transaction transaction = transactions.get(shard);
+        if (transaction == null) {
+            transaction = shard.beginTransaction();
+            transactions.put(shard, transaction);
+        }
+        return transaction;
+    }
+
+    private static boolean finish(Transaction transaction, boolean sync) {
+        if (sync)
+            return transaction.commit();
+        transaction.apply();
+        return true;
+    }
+
+    // Returns the shard of the group, which is only read when first used
+    private BinaryFileChannelStore shard(String groupId) {
+        String name = shardName(groupId);
+        synchronized (_shards) {
+            BinaryFileChannelStore shard = _shards.get(name);
+            if (shard == null) {
+                shard = new BinaryFileChannelStore(new File(_directory, SHARD_PREFIX + name + SHARD_SUFFIX), false, _writer);
+                _shards.put(name, shard);
+            }
+            return shard;
+        }
+    }
+
+    static String shardName(String groupId) {
+        if (groupId == null)
+            return UNGROUPED_SHARD;
+        CRC32 crc = new CRC32();
+        crc.update(groupId.getBytes(UTF_8));
+        return String.format("%08x", crc.getValue());
+    }
+
+    @Override
+    public void collectDiagnostics(Map<String, Object> out) {
+        File manifestFile = new File(_directory, MANIFEST_NAME);
+        int shardFiles = 0;
+        long shardBytes = 0;
+        File[] files = _directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SHARD_PREFIX) && file.getName().endsWith(SHARD_SUFFIX)) {
+                    ++shardFiles;
+                    shardBytes += file.length();
+                }
+            }
+        }
+        int openShards;
+        synchronized (_shards) {
+            openShards = _shards.size();
+        }
+        out.put("directory", _directory.getPath());
+        out.put("manifest_bytes", manifestFile.length());
+        out.put("shards", shardFiles);
+        out.put("shard_bytes", shardBytes);
+        out.put("bytes", manifestFile.length() + shardBytes);
+        out.put("open_shards", openShards);
+        out.put("channels", getChannelIds().size());
+        out.put("groups", getGroupIds().size());
+        out.put("channel_tombstones", getChannelTombstones().size());
+        out.put("group_tombstones", getGroupTombstones().size());
+    }
+}
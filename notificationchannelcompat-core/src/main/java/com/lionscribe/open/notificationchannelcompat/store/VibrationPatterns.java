@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Encodings of vibration patterns and other numbers, shared by the stores.
+ */
+public final class VibrationPatterns {
+    private VibrationPatterns() {
+    }
+
+    /**
+     * Returns the vibration pattern as comma separated text, or null.
+     */
+    public static String encodeText(long[] vibrationPattern) {
+        if (vibrationPattern == null)
+            return null;
+        StringBuilder vibrationPatternBldr = new StringBuilder(vibrationPattern.length * 4); // Guessing size
+        for (long val : vibrationPattern) {
+            vibrationPatternBldr.append(Long.toString(val)); // we are not using 16 byte hex for long, as comma separated will be smaller, due to small values
+            vibrationPatternBldr.append(',');
+        }
+        return vibrationPatternBldr.toString();
+    }
+
+    public static long[] decodeText(String vibrationPatternStr) {
+        if (vibrationPatternStr == null)
+            return null;
+        String[] vibrationPatternStrArray = vibrationPatternStr.split(",");
+        int length = vibrationPatternStrArray.length;
+        long[] vibrationPattern = new long[length];
+        for (int i = 0; i < length; ++i) {
+            vibrationPattern[i] = Long.parseLong(vibrationPatternStrArray[i]);
+        }
+        return vibrationPattern;
+    }
+
+    /**
+     * Writes the value as an unsigned LEB128 varint, 7 bits per byte.
+     */
+    public static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Bad varint");
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+import com.lionscribe.open.notificationchannelcompat.testing.AllocationMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Pins the allocation budget of the catalog's warm read paths, which run on every posted
+ * notification.
+ */
+public class ChannelCatalogAllocationTest {
+    private static final String CHANNEL_ID = "channel_one_home";
+    private static final String GROUP_ID = "group_home";
+
+    private ChannelCatalog _catalog;
+    private int _sink;
+
+    @Before
+    public void setUp() {
+        assumeTrue(AllocationMeter.isSupported());
+        _catalog = new ChannelCatalog(new InMemoryChannelStore());
+        GroupRecord group = new GroupRecord(GROUP_ID);
+        group.name = "Home";
+        _catalog.createGroups(Collections.singletonList(group));
+        ChannelRecord channel = new ChannelRecord(CHANNEL_ID);
+        channel.name = "Channel One";
+        channel.group = GROUP_ID;
+        channel.vibrationEnabled = true;
+        channel.vibrationPattern = new long[]{0, 250, 250, 250};
+        _catalog.createChannels(Collections.singletonList(channel));
+    }
+
+    @Test
+    public void getChannelDoesNotAllocate() {
+        AllocationMeter.assertAllocatesAtMost("getChannel", 0, new Runnable() {
+            @Override
+            public void run() {
+                _sink += _catalog.getChannel(CHANNEL_ID).importance;
+            }
+        });
+    }
+
+    @Test
+    public void getBlockReasonDoesNotAllocate() {
+        assertEquals(ChannelDecision.ALLOWED, _catalog.getBlockReason(CHANNEL_ID));
+        AllocationMeter.assertAllocatesAtMost("getBlockReason", 0, new Runnable() {
+            @Override
+            public void run() {
+                _sink += _catalog.getBlockReason(CHANNEL_ID);
+            }
+        });
+    }
+
+    @Test
+    public void unknownChannelDoesNotAllocate() {
+        AllocationMeter.assertAllocatesAtMost("getBlockReason of unknown channel", 0, new Runnable() {
+            @Override
+            public void run() {
+                _sink += _catalog.getBlockReason("no_such_channel");
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which settings of deleted channels and groups compaction keeps, and that it leaves the
+ * group of existing channels alone unless the group's settings are purged.
+ */
+public class ChannelCatalogCompactionTest {
+    private InMemoryChannelStore _store;
+    private ChannelCatalog _catalog;
+
+    @Before
+    public void setUp() {
+        _store = new InMemoryChannelStore();
+        _catalog = new ChannelCatalog(_store);
+        _catalog.createGroups(Collections.singletonList(group("home")));
+        _catalog.createChannels(Arrays.asList(channel("in_home", "home"), channel("deleted", null), channel("in_later", "later")));
+        _catalog.deleteChannel("deleted");
+        _catalog.deleteGroup("home"); // and in_home with it
+    }
+
+    @Test
+    public void keepsTombstonesWithinAge() {
+        assertEquals(0, _catalog.compact(ChannelRetentionPolicy.maxAge(1, TimeUnit.DAYS)));
+        assertEquals(new HashSet<>(Arrays.asList("in_home", "deleted")), _store.getChannelTombstones().keySet());
+        assertEquals(Collections.singleton("home"), _store.getGroupTombstones().keySet());
+        assertEquals("home", _store.readChannel("in_home").group);
+    }
+
+    @Test
+    public void purgesTombstonesByAge() throws InterruptedException {
+        Thread.sleep(20);
+        assertEquals(3, _catalog.compact(ChannelRetentionPolicy.maxAge(10, TimeUnit.MILLISECONDS)));
+        assertTrue(_store.getChannelTombstones().isEmpty());
+        assertTrue(_store.getGroupTombstones().isEmpty());
+        assertNull(_store.readChannel("deleted"));
+        assertNull(_store.readGroup("home"));
+    }
+
+    @Test
+    public void clearsOnlyPurgedGroupOfExistingChannel() throws InterruptedException {
+        // Created again before its group, which stays deleted
+        _catalog.createChannels(Collections.singletonList(channel("in_home", "home")));
+        Thread.sleep(20);
+        _catalog.compact(ChannelRetentionPolicy.maxAge(10, TimeUnit.MILLISECONDS));
+        assertNull(_catalog.getChannel("in_home").group);
+        assertEquals("later", _catalog.getChannel("in_later").group);
+    }
+
+    @Test
+    public void keepsGroupNotCreatedYet() {
+        _catalog.compact(ChannelRetentionPolicy.maxCount(0));
+        assertEquals("later", _catalog.getChannel("in_later").group);
+
+        _catalog.createGroups(Collections.singletonList(group("later")));
+        assertEquals(Collections.singleton("in_later"), _catalog.getChannelIdsOfGroup("later"));
+    }
+
+    private static GroupRecord group(String id) {
+        GroupRecord group = new GroupRecord(id);
+        group.name = id;
+        return group;
+    }
+
+    private static ChannelRecord channel(String id, String groupId) {
+        ChannelRecord channel = new ChannelRecord(id);
+        channel.name = id;
+        channel.group = groupId;
+        return channel;
+    }
+}
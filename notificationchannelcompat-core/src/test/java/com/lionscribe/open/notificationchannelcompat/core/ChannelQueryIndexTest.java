@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.core;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.InMemoryChannelStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that query results follow the changes made through the store, including those that
+ * the store only reports as a change of the whole store.
+ */
+public class ChannelQueryIndexTest {
+    private QuietChannelStore _store;
+    private ChannelQueryIndex _index;
+
+    @Before
+    public void setUp() {
+        _store = new QuietChannelStore();
+        ChannelCatalog catalog = new ChannelCatalog(_store);
+        catalog.createGroups(Arrays.asList(group("a"), group("b")));
+        catalog.createChannels(Arrays.asList(channel("one", "a", 3), channel("two", "a", 4), channel("three", "b", 4)));
+        _index = new ChannelQueryIndex(catalog);
+    }
+
+    @Test
+    public void followsGroupChange() {
+        assertEquals(Arrays.asList("one", "two"), _index.query(new ChannelQuery().setGroup("a")));
+
+        _store.beginTransaction().putChannel(channel("one", "b", 3)).commit();
+        assertEquals(Collections.singletonList("two"), _index.query(new ChannelQuery().setGroup("a")));
+        assertEquals(Arrays.asList("one", "three"), _index.query(new ChannelQuery().setGroup("b")));
+    }
+
+    @Test
+    public void followsImportanceChange() {
+        ChannelQuery important = new ChannelQuery().setImportanceRange(4, 4);
+        assertEquals(Arrays.asList("three", "two"), _index.query(important));
+
+        _store.beginTransaction().putChannel(channel("one", "a", 4)).putChannel(channel("two", "a", 2)).commit();
+        assertEquals(Arrays.asList("one", "three"), _index.query(important));
+        assertEquals(2, _index.count(important));
+    }
+
+    @Test
+    public void followsIdsReportedAsStoreChange() {
+        assertEquals(3, _index.count(new ChannelQuery()));
+
+        _store.commitQuietly(_store.beginTransaction().removeChannel("two").putChannel(channel("four", "b", 4)));
+        assertEquals(Arrays.asList("four", "one", "three"), _index.query(new ChannelQuery()));
+        assertEquals(Arrays.asList("four", "three"), _index.query(new ChannelQuery().setGroup("b")));
+    }
+
+    private static GroupRecord group(String id) {
+        GroupRecord group = new GroupRecord(id);
+        group.name = id;
+        return group;
+    }
+
+    private static ChannelRecord channel(String id, String groupId, int importance) {
+        ChannelRecord channel = new ChannelRecord(id);
+        channel.name = id;
+        channel.group = groupId;
+        channel.importance = importance;
+        return channel;
+    }
+
+    // Like a store shared with another process, that can only tell the whole store changed
+    private static class QuietChannelStore extends InMemoryChannelStore {
+        private boolean _quiet;
+
+        void commitQuietly(Transaction transaction) {
+            _quiet = true;
+            try {
+                transaction.commit();
+            } finally {
+                _quiet = false;
+            }
+            notifyStoreChanged();
+        }
+
+        @Override
+        protected void notifyChannelChanged(String channelId) {
+            if (!_quiet)
+                super.notifyChannelChanged(channelId);
+        }
+
+        @Override
+        protected void notifyGroupChanged(String groupId) {
+            if (!_quiet)
+                super.notifyGroupChanged(groupId);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import com.lionscribe.open.notificationchannelcompat.testing.ChannelRecords;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Round-trips channels with null and extreme values through the store file, read both from the
+ * file and through the mapped index.
+ */
+public class BinaryFileChannelStoreTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _file;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = new File(_folder.getRoot(), "channels.nccs");
+    }
+
+    @Test
+    public void roundTripsNullsAndExtremes() {
+        write(new BinaryFileChannelStore(_file, true));
+        assertRead(new BinaryFileChannelStore(_file, false));
+        assertRead(new BinaryFileChannelStore(_file, true));
+    }
+
+    @Test
+    public void roundTripsImportanceUnspecified() {
+        ChannelRecord channel = new ChannelRecord("unspecified");
+        channel.importance = ChannelRecords.IMPORTANCE_UNSPECIFIED;
+        new BinaryFileChannelStore(_file, true).beginTransaction().putChannel(channel).commit();
+        assertEquals(ChannelRecords.IMPORTANCE_UNSPECIFIED, new BinaryFileChannelStore(_file, false).readChannel("unspecified").importance);
+        assertEquals(ChannelRecords.IMPORTANCE_UNSPECIFIED, new BinaryFileChannelStore(_file, true).readChannel("unspecified").importance);
+    }
+
+    private static void write(ChannelStore store) {
+        GroupRecord group = new GroupRecord("group");
+        group.enabled = false;
+        store.beginTransaction()
+                .putGroup(group)
+                .putGroup(new GroupRecord("empty"))
+                .putChannel(ChannelRecords.withNulls("nulls"))
+                .putChannel(ChannelRecords.withExtremes("extremes", "group"))
+                .setNotificationsEnabled(false)
+                .commit();
+    }
+
+    private static void assertRead(ChannelStore store) {
+        assertFalse(store.isNotificationsEnabled());
+        assertEquals(ChannelRecords.withNulls("nulls"), store.readChannel("nulls"));
+        assertEquals(ChannelRecords.withExtremes("extremes", "group"), store.readChannel("extremes"));
+        assertNull(store.readChannel("missing"));
+        GroupRecord group = store.readGroup("group");
+        assertFalse(group.enabled);
+        assertNull(group.name);
+        assertEquals(new GroupRecord("empty"), store.readGroup("empty"));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import com.lionscribe.open.notificationchannelcompat.testing.ChannelRecords;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the journal after the ways a process can die while writing it: in the middle of an
+ * entry, and in the middle of a fold.
+ */
+public class JournaledChannelStoreTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _file;
+    private File _journalFile;
+    private File _oldJournalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = new File(_folder.getRoot(), "channels.nccs");
+        _journalFile = new File(_file.getPath() + ".journal");
+        _oldJournalFile = new File(_file.getPath() + ".journal.old");
+    }
+
+    @Test
+    public void roundTripsNullsAndExtremes() {
+        JournaledChannelStore store = new JournaledChannelStore(_file);
+        store.beginTransaction()
+                .putChannel(ChannelRecords.withNulls("nulls"))
+                .putChannel(ChannelRecords.withExtremes("extremes", "group"))
+                .commit();
+
+        store = new JournaledChannelStore(_file);
+        assertEquals(ChannelRecords.withNulls("nulls"), store.readChannel("nulls"));
+        assertEquals(ChannelRecords.withExtremes("extremes", "group"), store.readChannel("extremes"));
+        assertTrue(store.fold());
+        assertEquals(ChannelRecords.withExtremes("extremes", "group"), new JournaledChannelStore(_file).readChannel("extremes"));
+    }
+
+    @Test
+    public void dropsTornTail() throws IOException {
+        JournaledChannelStore store = new JournaledChannelStore(_file);
+        store.beginTransaction().putChannel(channel("first", "one")).commit();
+        store.beginTransaction().putChannel(channel("second", "two")).commit();
+        long length = _journalFile.length();
+        // The length and the start of an entry that was never finished
+        FileOutputStream out = new FileOutputStream(_journalFile, true);
+        out.write(new byte[]{0, 0, 0, 50, 1, 2, 3});
+        out.close();
+
+        store = new JournaledChannelStore(_file);
+        assertEquals(2, store.getChannelIds().size());
+        assertEquals("two", store.readChannel("second").name);
+        assertEquals(length, _journalFile.length());
+
+        // New entries follow the last whole one
+        store.beginTransaction().putChannel(channel("third", "three")).commit();
+        store = new JournaledChannelStore(_file);
+        assertEquals(3, store.getChannelIds().size());
+        assertEquals("three", store.readChannel("third").name);
+    }
+
+    @Test
+    public void recoversUnfinishedFold() {
+        JournaledChannelStore store = new JournaledChannelStore(_file);
+        store.beginTransaction().putChannel(channel("first", "one")).commit();
+        store.beginTransaction().putChannel(channel("second", "two")).commit();
+        // A fold set the journal aside, and the process died before the store file was written
+        assertTrue(_journalFile.renameTo(_oldJournalFile));
+
+        store = new JournaledChannelStore(_file);
+        assertTrue(store.exists());
+        assertEquals("one", store.readChannel("first").name);
+        store.beginTransaction().putChannel(channel("first", "one again")).removeChannel("second").commit();
+
+        // The new journal is replayed after the old one
+        store = new JournaledChannelStore(_file);
+        assertEquals("one again", store.readChannel("first").name);
+        assertFalse(store.containsChannel("second"));
+
+        assertTrue(store.fold());
+        assertFalse(_journalFile.exists());
+        assertFalse(_oldJournalFile.exists());
+        store = new JournaledChannelStore(_file);
+        assertEquals("one again", store.readChannel("first").name);
+        assertFalse(store.containsChannel("second"));
+    }
+
+    private static ChannelRecord channel(String id, String name) {
+        ChannelRecord channel = new ChannelRecord(id);
+        channel.name = name;
+        return channel;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.store;
+
+import com.lionscribe.open.notificationchannelcompat.testing.ChannelRecords;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Round-trips channels through the shards, and reads a channel that moves between groups at
+ * each point the move can be cut off.
+ */
+public class ShardedChannelStoreTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+
+    @Before
+    public void setUp() throws IOException {
+        _directory = _folder.newFolder("channels");
+        new ShardedChannelStore(_directory).beginTransaction()
+                .putGroup(new GroupRecord("from"))
+                .putGroup(new GroupRecord("to"))
+                .putChannel(channel("from", "before"))
+                .commit();
+    }
+
+    @Test
+    public void roundTripsNullsAndExtremes() {
+        new ShardedChannelStore(_directory).beginTransaction()
+                .putChannel(ChannelRecords.withNulls("nulls"))
+                .putChannel(ChannelRecords.withExtremes("extremes", "to"))
+                .commit();
+
+        ShardedChannelStore store = new ShardedChannelStore(_directory);
+        assertEquals(ChannelRecords.withNulls("nulls"), store.readChannel("nulls"));
+        assertEquals(ChannelRecords.withExtremes("extremes", "to"), store.readChannel("extremes"));
+    }
+
+    @Test
+    public void movedChannelIsReadable() {
+        new ShardedChannelStore(_directory).beginTransaction().putChannel(channel("to", "after")).commit();
+
+        assertEquals(channel("to", "after"), new ShardedChannelStore(_directory).readChannel("moving"));
+    }
+
+    @Test
+    public void movingChannelIsReadableBeforeManifest() {
+        assertNotEquals(ShardedChannelStore.shardName("from"), ShardedChannelStore.shardName("to"));
+        // Written to the shard of its new group, but not yet to the manifest
+        shard("to").beginTransaction().putChannel(channel("to", "after")).commit();
+
+        assertEquals(channel("from", "before"), new ShardedChannelStore(_directory).readChannel("moving"));
+    }
+
+    @Test
+    public void movingChannelIsReadableBeforeRemoval() {
+        // Written to the shard of its new group and to the manifest, but still in the old shard
+        shard("to").beginTransaction().putChannel(channel("to", "after")).commit();
+        ChannelRecord manifestEntry = new ChannelRecord("moving");
+        manifestEntry.group = "to";
+        new BinaryFileChannelStore(new File(_directory, "manifest.nccs")).beginTransaction().putChannel(manifestEntry).commit();
+
+        ShardedChannelStore store = new ShardedChannelStore(_directory);
+        assertEquals(channel("to", "after"), store.readChannel("moving"));
+        assertEquals(1, store.getChannelIds().size());
+    }
+
+    private BinaryFileChannelStore shard(String groupId) {
+        return new BinaryFileChannelStore(new File(_directory, "shard-" + ShardedChannelStore.shardName(groupId) + ".nccs"));
+    }
+
+    private static ChannelRecord channel(String groupId, String name) {
+        ChannelRecord channel = new ChannelRecord("moving");
+        channel.name = name;
+        channel.group = groupId;
+        return channel;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.testing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the heap bytes that an operation allocates per call on the current thread, through
+ * the allocation counter of HotSpot's {@link com.sun.management.ThreadMXBean}.
+ * <p>
+ * The operation is warmed up first, so that lazy caches are filled and the JIT has compiled it,
+ * and then run many times so that the meter's own cost averages out. Tests pin a budget with
+ * {@link #assertAllocatesAtMost}, which fails when a change makes a warm path allocate more.
+ * Tests should skip when {@link #isSupported()} is false.
+ */
+public final class AllocationMeter {
+    public static final int DEFAULT_WARMUP = 20000;
+    public static final int DEFAULT_ITERATIONS = 20000;
+
+    private static final com.sun.management.ThreadMXBean sThreadBean = threadBean();
+
+    private AllocationMeter() {
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        try {
+            if (!threadBean.isThreadAllocatedMemorySupported())
+                return null;
+            if (!threadBean.isThreadAllocatedMemoryEnabled())
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return null;
+        }
+        return threadBean;
+    }
+
+    /**
+     * Returns whether this JVM can count the bytes allocated by a thread.
+     */
+    public static boolean isSupported() {
+        return sThreadBean != null;
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far.
+     */
+    public static long allocatedBytes() {
+        if (sThreadBean == null)
+            throw new UnsupportedOperationException("Thread allocation counting is not supported by this JVM");
+        return sThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the average bytes allocated per call of the warm operation, rounded down.
+     */
+    public static long bytesPerCall(Runnable operation) {
+        return bytesPerCall(operation, DEFAULT_WARMUP, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Returns the average bytes allocated per call of the operation, rounded down, after
+     * running it warmup times unmeasured.
+     */
+    public static long bytesPerCall(Runnable operation, int warmup, int iterations) {
+        if (iterations <= 0)
+            throw new IllegalArgumentException("iterations must be positive");
+        for (int i = 0; i < warmup; ++i)
+            operation.run();
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead; // the cost of reading the counter itself
+        long before = allocatedBytes();
+        for (int i = 0; i < iterations; ++i)
+            operation.run();
+        long allocated = allocatedBytes() - before - overhead;
+        return Math.max(0, allocated) / iterations;
+    }
+
+    /**
+     * Fails with an {@link AssertionError} when the warm operation allocates more than
+     * budgetBytes per call.
+     *
+     * @param name        the name of the operation, used in the failure message
+     * @param budgetBytes the bytes the operation may allocate per call, 0 for none
+     */
+    public static void assertAllocatesAtMost(String name, long budgetBytes, Runnable operation) {
+        long bytes = bytesPerCall(operation);
+        if (bytes > budgetBytes)
+            throw new AssertionError(name + " allocates " + bytes + " bytes per call, budget is " + budgetBytes);
+    }
+}
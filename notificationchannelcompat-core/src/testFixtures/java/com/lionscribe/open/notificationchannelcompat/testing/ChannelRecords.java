@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat.testing;
+
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+
+/**
+ * Channel records that push the store formats to their edges, for round-trip tests.
+ */
+public final class ChannelRecords {
+    /**
+     * NotificationManager.IMPORTANCE_UNSPECIFIED, which does not fit in a byte.
+     */
+    public static final int IMPORTANCE_UNSPECIFIED = -1000;
+
+    private ChannelRecords() {
+    }
+
+    /**
+     * Returns a channel with every nullable field null, and every other field at its default.
+     */
+    public static ChannelRecord withNulls(String id) {
+        ChannelRecord channel = new ChannelRecord(id);
+        channel.name = null;
+        channel.description = null;
+        channel.sound = null;
+        channel.vibrationPattern = null;
+        channel.group = null;
+        return channel;
+    }
+
+    /**
+     * Returns a channel of the group with the extreme value of every field.
+     */
+    public static ChannelRecord withExtremes(String id, String groupId) {
+        ChannelRecord channel = new ChannelRecord(id);
+        channel.name = "";
+        channel.description = "Café ☕ 🔔 " + new String(new char[1000]).replace('\0', 'x');
+        channel.enabled = false;
+        channel.importance = IMPORTANCE_UNSPECIFIED;
+        channel.lockscreenVisibility = Integer.MIN_VALUE;
+        channel.sound = "";
+        channel.lights = true;
+        channel.lightColor = 0xFFFFFFFF;
+        channel.vibrationEnabled = true;
+        channel.vibrationPattern = new long[]{0, Long.MAX_VALUE, 1, Integer.MAX_VALUE + 1L};
+        channel.group = groupId;
+        channel.hasAudioAttributes = true;
+        channel.audioContentType = Integer.MAX_VALUE;
+        channel.audioFlags = Integer.MIN_VALUE;
+        channel.audioUsage = -1;
+        channel.audioStreamType = Integer.MIN_VALUE;
+        return channel;
+    }
+}
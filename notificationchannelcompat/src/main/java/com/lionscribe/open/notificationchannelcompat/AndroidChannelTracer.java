@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelTracer;
+
+import androidx.tracing.Trace;
+
+/**
+ * Emits the catalog's trace sections through androidx.tracing, so that they show up in Perfetto
+ * and systrace captures.
+ */
+final class AndroidChannelTracer implements ChannelTracer {
+    static final String SECTION_APPLY_CHANNEL = "NotificationChannelCompat.applyChannel";
+    static final AndroidChannelTracer INSTANCE = new AndroidChannelTracer();
+
+    private AndroidChannelTracer() {
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return Trace.isEnabled();
+    }
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+}
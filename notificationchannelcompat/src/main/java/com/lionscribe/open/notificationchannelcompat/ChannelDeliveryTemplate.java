@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.app.Notification;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.media.AudioAttributes;
+import android.net.Uri;
+import android.os.Build;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelDecision;
+
+import androidx.core.content.ContextCompat;
+
+/**
+ * The settings of a single pre-Oreo channel, compiled into the final values that
+ * {@link NotificationChannelCompat#applyChannel} stores into a {@link Notification}.
+ * <p>
+ * Templates are immutable, and are built by {@link NotificationChannelRegistry} when first
+ * needed. They are dropped whenever their channel, its group, or the global switch changes.
+ */
+final class ChannelDeliveryTemplate {
+    static final int ALLOWED = ChannelDecision.ALLOWED;
+    static final int BLOCKED_ALL = ChannelDecision.BLOCKED_ALL;
+    static final int BLOCKED_CHANNEL = ChannelDecision.BLOCKED_CHANNEL;
+    static final int BLOCKED_GROUP = ChannelDecision.BLOCKED_GROUP;
+
+    private static final int DEFAULT_LIGHT_COLOR = 0;
+    // we put an empty vibrate, that fools system in cases that PRIORITY_MAX should show HeadsUp even without sound
+    private static final long[] EMPTY_VIBRATE = new long[0];
+
+    final String mGroup;
+    final int mBlockReason;
+    private final int mDefaults;
+    private final Uri mSound;
+    private final AudioAttributes mAudioAttributes;
+    private final int mAudioStreamType;
+    private final boolean mSetVibrate;
+    private final long[] mVibrate;
+    private final int mPriority;
+    private final int mVisibility;
+    private final boolean mShowLights;
+    private final boolean mSetLedTiming;
+    private final int mLedARGB;
+    private final int mLedOnMS;
+    private final int mLedOffMS;
+
+    /**
+     * @param blockReason the {@link ChannelDecision#blockReason} of the channel
+     */
+    ChannelDeliveryTemplate(Context context, NotificationChannelCompat channel, int blockReason) {
+        mGroup = channel.getGroup();
+        mBlockReason = blockReason;
+
+        int defaults = 0;
+
+        mSound = (ChannelDecision.playsSound(channel.getImportance()) ? channel.getSound() : null);
+        mAudioAttributes = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? channel.getAudioAttributes() : null;
+        mAudioStreamType = channel.getAudioStreamType();
+
+        boolean permissionGrantedVibrate = ContextCompat.checkSelfPermission(context, "android.permission.VIBRATE") == PackageManager.PERMISSION_GRANTED;
+        boolean setVibrate = true;
+        long[] vibrate = null;
+        if (channel.shouldVibrate()) {
+            if (channel.getVibrationPattern() != null && permissionGrantedVibrate) { // when no permission we use DEFAULT VIBRATE which on some OS does not need permission
+                vibrate = channel.getVibrationPattern();
+            } else if (permissionGrantedVibrate || Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) { // As of 4.2.1 permission is not needed for DEFAULT_VIBRATE. See https://android.googlesource.com/platform/frameworks/base/+/cc2e849
+                defaults |= Notification.DEFAULT_VIBRATE;
+                setVibrate = false;
+            }
+        } else if (Build.VERSION.SDK_INT >= 21 && channel.getImportance() == ChannelDecision.IMPORTANCE_HIGH && mSound == null) { // then headsup won't be shown without vibrate, as there is no sound
+            if (permissionGrantedVibrate) {
+                vibrate = EMPTY_VIBRATE;
+            } else {
+                defaults |= Notification.DEFAULT_VIBRATE; // too bad, vibrate!
+                setVibrate = false;
+            }
+        }
+        mSetVibrate = setVibrate;
+        mVibrate = vibrate;
+
+        mPriority = ChannelDecision.priority(channel.getImportance());
+        mVisibility = channel.getLockscreenVisibility();
+
+        mShowLights = channel.shouldShowLights();
+        mLedARGB = channel.getLightColor();
+        int ledOnMS = 0;
+        int ledOffMS = 0;
+        if (mShowLights && mLedARGB == DEFAULT_LIGHT_COLOR) {
+            defaults |= Notification.DEFAULT_LIGHTS;
+        } else if (mShowLights) {
+            try {
+                Resources resources = context.getResources();
+                Resources systemResources = Resources.getSystem();
+                ledOnMS = resources.getInteger(systemResources.getIdentifier("config_defaultNotificationLedOn", "integer", "android"));
+                ledOffMS = resources.getInteger(systemResources.getIdentifier("config_defaultNotificationLedOff", "integer", "android"));
+            } catch (Exception e) {
+                ledOnMS = 500;
+                ledOffMS = 2000;
+            }
+        }
+        mSetLedTiming = mShowLights && mLedARGB != DEFAULT_LIGHT_COLOR;
+        mLedOnMS = ledOnMS;
+        mLedOffMS = ledOffMS;
+
+        mDefaults = defaults;
+    }
+
+    /**
+     * Stores the compiled settings into the notification. Only valid when {@link #mBlockReason}
+     * is {@link #ALLOWED}.
+     */
+    void apply(Notification notif) {
+        notif.defaults = mDefaults;
+        notif.sound = mSound;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mAudioAttributes != null) {
+            notif.audioAttributes = mAudioAttributes;
+        } else {
+            notif.audioStreamType = mAudioStreamType;
+        }
+        if (mSetVibrate)
+            notif.vibrate = mVibrate;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            notif.priority = mPriority;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            notif.visibility = mVisibility;
+        if (mShowLights) {
+            notif.ledARGB = mLedARGB;
+            if (mSetLedTiming) {
+                notif.ledOnMS = mLedOnMS;
+                notif.ledOffMS = mLedOffMS;
+            }
+            notif.flags |= Notification.FLAG_SHOW_LIGHTS;
+        } else {
+            notif.flags &= ~Notification.FLAG_SHOW_LIGHTS;
+        }
+    }
+}
@@ -23,8 +23,6 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.media.AudioAttributes;
 import android.net.Uri;
 import android.os.Build;
@@ -34,6 +32,10 @@ import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.lionscribe.open.notificationchannelcompat.core.ChannelDecision;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelMetrics;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+
 import java.lang.reflect.Field;
 import java.util.Arrays;
 
@@ -41,7 +43,7 @@ import androidx.annotation.CheckResult;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
-import androidx.core.content.ContextCompat;
+import androidx.tracing.Trace;
 
 /**
  * A representation of settings that apply to a collection of similarly themed notifications.
@@ -117,6 +119,74 @@ public final class NotificationChannelCompat implements Parcelable {
         this.mId = null; // just to make compiler happy
     }
 
+    // Pre-Oreo copy, so that callers can't modify the registry's cached instance
+    NotificationChannelCompat(NotificationChannelCompat original) {
+        mId = original.mId;
+        mName = original.mName;
+        mDesc = original.mDesc;
+        mChannelEnabled = original.mChannelEnabled;
+        mImportance = original.mImportance;
+        mLockscreenVisibility = original.mLockscreenVisibility;
+        mSound = original.mSound;
+        mLights = original.mLights;
+        mLightColor = original.mLightColor;
+        mVibration = original.mVibration == null ? null : original.mVibration.clone();
+        mVibrationEnabled = original.mVibrationEnabled;
+        mGroup = original.mGroup;
+        mAudioAttributes = original.mAudioAttributes;
+        mAudioStreamType = original.mAudioStreamType;
+    }
+
+    // Pre-Oreo only, as the registry is not used on Oreo and later
+    static NotificationChannelCompat fromRecord(ChannelRecord record) {
+        NotificationChannelCompat channel = new NotificationChannelCompat(record.id, record.name, record.importance);
+        channel.setDescription(record.description);
+        channel.setEnabled(record.enabled);
+        channel.setGroup(record.group);
+        channel.setLockscreenVisibility(record.lockscreenVisibility);
+        channel.enableLights(record.lights);
+        channel.setLightColor(record.lightColor);
+
+        Uri soundUri = TextUtils.isEmpty(record.sound) ? null : Uri.parse(record.sound);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && record.hasAudioAttributes) {
+            AudioAttributes.Builder audioBuilder = new AudioAttributes.Builder();
+            audioBuilder.setContentType(record.audioContentType);
+            audioBuilder.setFlags(record.audioFlags);
+            audioBuilder.setUsage(record.audioUsage);
+
+            channel.setSound(soundUri, audioBuilder.build());
+        }
+        channel.setSound(soundUri, record.audioStreamType); // support pre-lollypop
+
+        channel.enableVibration(record.vibrationEnabled);
+        if (record.vibrationPattern != null)
+            channel.setVibrationPattern(record.vibrationPattern);
+        return channel;
+    }
+
+    ChannelRecord toRecord() {
+        ChannelRecord record = new ChannelRecord(getId());
+        record.name = getName() == null ? null : getName().toString();
+        record.description = getDescription();
+        record.enabled = isEnabled();
+        record.importance = getImportance();
+        record.lockscreenVisibility = getLockscreenVisibility();
+        record.sound = getSound() == null ? null : getSound().toString();
+        record.lights = shouldShowLights();
+        record.lightColor = getLightColor();
+        record.vibrationEnabled = shouldVibrate();
+        record.vibrationPattern = getVibrationPattern();
+        record.group = getGroup();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && getAudioAttributes() != null) {
+            record.hasAudioAttributes = true;
+            record.audioContentType = getAudioAttributes().getContentType();
+            record.audioFlags = getAudioAttributes().getFlags();
+            record.audioUsage = getAudioAttributes().getUsage();
+        }
+        record.audioStreamType = getAudioStreamType();
+        return record;
+    }
+
     protected NotificationChannelCompat(Parcel in) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             _oreoNotificationChannel = in.readParcelable(NotificationChannel.class.getClassLoader());
@@ -190,89 +260,50 @@ public final class NotificationChannelCompat implements Parcelable {
             return true;
         }
 
-        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        NotificationChannelManagerHelper notificationManagerHelper = new NotificationChannelManagerHelper(context, notificationManager);
-        if (!notificationManagerHelper.isNotificationsEnabled()) {
-            Log.d(TAG, "Notifications are disabled. Showing no notification!");
-            return false;
-        }
-
-        NotificationChannelCompat channel = notificationManagerHelper.getNotificationChannel(channelId);
-        if (channel == null) {
+        boolean traced = Trace.isEnabled();
+        if (traced)
+            Trace.beginSection(AndroidChannelTracer.SECTION_APPLY_CHANNEL);
+        NotificationChannelRegistry registry = NotificationChannelRegistry.getInstance(context);
+        ChannelMetrics metrics = registry._catalog.getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        int decision;
+        try {
+            decision = applyTemplate(registry, notif, channelId);
+        } finally {
+            if (traced)
+                Trace.endSection();
+        }
+        if (metrics != null)
+            metrics.onDecision(channelId, decision, System.nanoTime() - start);
+        return decision == ChannelDecision.ALLOWED;
+    }
+
+    // Applies the channel pre-Oreo, and returns ChannelDecision.ALLOWED or why it was blocked
+    private static int applyTemplate(NotificationChannelRegistry registry, Notification notif, String channelId) {
+        ChannelDeliveryTemplate template = registry.getDeliveryTemplate(channelId);
+        if (template == null) {
+            if (!registry.isNotificationsEnabled()) {
+                Log.d(TAG, "Notifications are disabled. Showing no notification!");
+                return ChannelDecision.BLOCKED_ALL;
+            }
             Log.w(TAG, "Cannot create notification with unknown channel \"" + channelId + "\"!");
-            return false;
-        }
-
-        if (!channel.isEnabled() || channel.getImportance() == NotificationManager.IMPORTANCE_NONE) {
-            Log.d(TAG, "Channel is disabled. Showing no notification!");
-            return false;
+            return ChannelDecision.UNKNOWN_CHANNEL;
         }
 
-        if (channel.getGroup() != null) {
-            NotificationChannelGroupCompat group = notificationManagerHelper.getNotificationChannelGroup(channel.getGroup());
-            if (group != null && group.isBlocked()) {
+        switch (template.mBlockReason) {
+            case ChannelDeliveryTemplate.BLOCKED_ALL:
+                Log.d(TAG, "Notifications are disabled. Showing no notification!");
+                return template.mBlockReason;
+            case ChannelDeliveryTemplate.BLOCKED_CHANNEL:
+                Log.d(TAG, "Channel is disabled. Showing no notification!");
+                return template.mBlockReason;
+            case ChannelDeliveryTemplate.BLOCKED_GROUP:
                 Log.d(TAG, "Group is disabled. Showing no notification!");
-                return false;
-            }
+                return template.mBlockReason;
         }
 
-        notif.defaults = 0;  // clear all default flags
-
-        notif.sound = (channel.getImportance() >= NotificationManagerCompat.IMPORTANCE_DEFAULT ? channel.getSound() : null);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && channel.getAudioAttributes() != null) {
-            notif.audioAttributes = channel.getAudioAttributes();
-        } else {
-            notif.audioStreamType = channel.getAudioStreamType();
-        }
-
-        boolean permissionGrantedVibrate = ContextCompat.checkSelfPermission(context, "android.permission.VIBRATE") == PackageManager.PERMISSION_GRANTED;
-        if (channel.shouldVibrate()) {
-            if (channel.getVibrationPattern() != null && permissionGrantedVibrate) // when no permission we use DEFAULT VIBRATE which on some OS does not need permission
-                notif.vibrate = channel.getVibrationPattern();
-            else if (permissionGrantedVibrate || Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)  // As of 4.2.1 permission is not needed for DEFAULT_VIBRATE. See https://android.googlesource.com/platform/frameworks/base/+/cc2e849
-                notif.defaults += Notification.DEFAULT_VIBRATE;
-            else
-                notif.vibrate = null;
-        } else if (Build.VERSION.SDK_INT >= 21 && channel.getImportance() == NotificationManagerCompat.IMPORTANCE_HIGH && notif.sound == null) // then headsup won't be shown without vibrate, as there is no sound
-        {
-            if (permissionGrantedVibrate)
-                notif.vibrate = new long[0];   // we put an empty vibrate, that fools system in cases that PRIORITY_MAX should show HeadsUp even without sound
-            else
-                notif.defaults += Notification.DEFAULT_VIBRATE; // too bad, vibrate!
-        } else {
-            notif.vibrate = null;
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-            notif.priority = (channel.getImportance() - NotificationManagerCompat.IMPORTANCE_DEFAULT); // NotificationManager.PRIORITY_DEFAULT = 3, while Notification.PRIORITY_DEFAULT = 0, so we have to deduct
-        }
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            notif.visibility = channel.getLockscreenVisibility();
-        }
-
-        if (channel.shouldShowLights()) {
-            notif.ledARGB = channel.getLightColor();
-            if (notif.ledARGB == DEFAULT_LIGHT_COLOR) {
-                notif.defaults += Notification.DEFAULT_LIGHTS;
-            } else {
-                try {
-                    Resources resources = context.getResources();
-                    Resources systemResources = Resources.getSystem();
-                    // if (notif.ledARGB == DEFAULT_LIGHT_COLOR)
-                    //      notif.ledARGB = ContextCompat.getColor(context, systemResources.getIdentifier("config_defaultNotificationColor", "color", "android"));
-                    notif.ledOnMS = resources.getInteger(systemResources.getIdentifier("config_defaultNotificationLedOn", "integer", "android"));
-                    notif.ledOffMS = resources.getInteger(systemResources.getIdentifier("config_defaultNotificationLedOff", "integer", "android"));
-                } catch (Exception e) {
-                    notif.ledOnMS = 500;
-                    notif.ledOffMS = 2000;
-                }
-            }
-            notif.flags = notif.flags | Notification.FLAG_SHOW_LIGHTS;
-        } else {
-            notif.flags = notif.flags & ~Notification.FLAG_SHOW_LIGHTS;
-        }
-        return true;
+        template.apply(notif);
+        return ChannelDecision.ALLOWED;
     }
 
     @Override
@@ -26,6 +26,8 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.TextUtils;
 
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -55,7 +57,7 @@ public final class NotificationChannelGroupCompat implements Parcelable {
     private final String mId;
     private CharSequence mName;
     private String mDescription;
-    private boolean mEnabled;
+    private boolean mEnabled = true;
     private List<NotificationChannelCompat> mChannels = new ArrayList<>();
     private NotificationChannelGroup _notificationChannelGroup;
 
@@ -86,6 +88,22 @@ public final class NotificationChannelGroupCompat implements Parcelable {
         this.mId = _notificationChannelGroup.getId(); // just to make compiler happy
     }
 
+    // Pre-Oreo only, as the registry is not used on Oreo and later
+    static NotificationChannelGroupCompat fromRecord(GroupRecord record) {
+        NotificationChannelGroupCompat group = new NotificationChannelGroupCompat(record.id, record.name);
+        group.setDescription(record.description);
+        group.setEnabled(record.enabled);
+        return group;
+    }
+
+    GroupRecord toRecord() {
+        GroupRecord record = new GroupRecord(getId());
+        record.name = getName() == null ? null : getName().toString();
+        record.description = getDescription();
+        record.enabled = isEnabled();
+        return record;
+    }
+
     protected NotificationChannelGroupCompat(Parcel in) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             _notificationChannelGroup = in.readParcelable(NotificationChannelCompat.class.getClassLoader());
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import androidx.startup.Initializer;
+
+/**
+ * Opt-in androidx.startup initializer, that starts {@link NotificationChannelManagerHelper#preload(Context)}
+ * at app startup. It's not declared by the library, to enable it add this to the app manifest:
+ * <pre>
+ * &lt;provider
+ *     android:name="androidx.startup.InitializationProvider"
+ *     android:authorities="${applicationId}.androidx-startup"
+ *     android:exported="false"
+ *     tools:node="merge"&gt;
+ *     &lt;meta-data
+ *         android:name="com.lionscribe.open.notificationchannelcompat.NotificationChannelInitializer"
+ *         android:value="androidx.startup" /&gt;
+ * &lt;/provider&gt;
+ * </pre>
+ * Apps that set their own store with {@link NotificationChannelManagerHelper#setChannelStore}
+ * should call preload themselves after setting it, instead.
+ */
+public final class NotificationChannelInitializer implements Initializer<Void> {
+    @NonNull
+    @Override
+    public Void create(@NonNull Context context) {
+        NotificationChannelManagerHelper.preload(context);
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public List<Class<? extends Initializer<?>>> dependencies() {
+        return Collections.emptyList();
+    }
+}
@@ -23,21 +23,52 @@ import android.app.NotificationChannel;
 import android.app.NotificationChannelGroup;
 import android.app.NotificationManager;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.media.AudioAttributes;
-import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
-import android.util.ArraySet;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelMetrics;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelQuery;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelQueryIndex;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelRetentionPolicy;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelSearchIndex;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelSortKeys;
+import com.lionscribe.open.notificationchannelcompat.core.CountingChannelMetrics;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.DiagnosableChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.io.PrintWriter;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
-import androidx.core.app.NotificationManagerCompat;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
 
+/**
+ * Compat version of the channel methods of {@link NotificationManager}. Pre-Oreo, the channels
+ * are emulated by the library.
+ * <p>
+ * A helper may be shared by all threads. Reads take no lock, and writes are serialized.
+ */
 public final class NotificationChannelManagerHelper {
     public final static String SHARED_PREFERENCE_NAME = "com.lionscribe.open.notificationchannelcompat_channel_prefs";
 
@@ -61,32 +92,168 @@ public final class NotificationChannelManagerHelper {
     public final static String PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS = "channel_audioAttributesFlags_%s";
     public final static String PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE = "channel_audioAttributesUsage_%s";
     public final static String PREF_KEY_CHANNEL_AUDIOSTREAMTYPE = "channel_audioStreamTYpe_%s";
+    public final static String PREF_KEY_CHANNEL_DELETED = "channel_deleted_%s"; // tombstone, the time the channel was deleted
 
     public final static String PREF_KEY_GROUPS_IDS = "groups_ids";
 
     public final static String PREF_KEY_GROUP_NAME = "group_name_%s";
     public final static String PREF_KEY_GROUP_DESCRIPTION = "group_description_%s";
     public final static String PREF_KEY_GROUP_ENABLED = "group_enabled_%s";
+    public final static String PREF_KEY_GROUP_DELETED = "group_deleted_%s"; // tombstone, the time the group was deleted
     final NotificationManager _manager;
-    final SharedPreferences _prefs;
-    Set<String> _channelIds;
-    Set<String> _groupIds;
+    final NotificationChannelRegistry _registry;
+    final ChannelStore _store;
+    final Executor _executor;
+
+    private static final int DUMP_FORMAT_VERSION = 1;
+
+    private static Executor sDefaultExecutor;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
 
     public NotificationChannelManagerHelper(Context context, NotificationManager manager) {
+        this(context, manager, null);
+    }
+
+    /**
+     * @param executor runs the *Async methods. If null, a shared background thread is used.
+     */
+    public NotificationChannelManagerHelper(Context context, NotificationManager manager, Executor executor) {
         _manager = manager;
-        _prefs = context.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE);
-        _channelIds = _prefs.getStringSet(PREF_KEY_CHANNELS_IDS, null);
-        _groupIds = _prefs.getStringSet(PREF_KEY_GROUPS_IDS, null);
-        if (_channelIds == null)
-            _channelIds = new ArraySet<>();
-        if (_groupIds == null)
-            _groupIds = new ArraySet<>();
+        _registry = NotificationChannelRegistry.getInstance(context);
+        _store = _registry._store;
+        _executor = executor != null ? executor : getDefaultExecutor();
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            // A single thread, so async writes made through the default executor run in order
+            sDefaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NotificationChannelCompat");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDefaultExecutor;
+    }
+
+    /**
+     * Reads the pre-Oreo channel settings into memory on a background thread, so the first
+     * notification doesn't have to. Call it early, usually in
+     * {@link android.app.Application#onCreate()}, or let {@link NotificationChannelInitializer}
+     * do it. Until the preload is done, helper calls that need the settings wait for it rather
+     * than reading them a second time. Does nothing on Oreo and later.
+     *
+     * @param executor runs the preload. If null, a shared background thread is used.
+     * @return a future that completes when the settings are in memory
+     */
+    public static ListenableFuture<Void> preload(Context context, Executor executor) {
+        final NotificationChannelRegistry registry = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? null : NotificationChannelRegistry.getInstance(context);
+        final Executor preloadExecutor = executor != null ? executor : getDefaultExecutor();
+        return CallbackToFutureAdapter.getFuture(new CallbackToFutureAdapter.Resolver<Void>() {
+            @Override
+            public Object attachCompleter(@NonNull final CallbackToFutureAdapter.Completer<Void> completer) {
+                if (registry == null) {
+                    completer.set(null);
+                    return "preload";
+                }
+                preloadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            registry.preload();
+                            registry.scheduleCompaction(getDefaultExecutor());
+                            completer.set(null);
+                        } catch (Throwable e) {
+                            completer.setException(e);
+                        }
+                    }
+                });
+                return "preload";
+            }
+        });
+    }
+
+    public static ListenableFuture<Void> preload(Context context) {
+        return preload(context, null);
+    }
+
+    /**
+     * Sets the store used pre-Oreo to keep the channel settings, in place of the default
+     * {@link SharedPreferencesChannelStore}. Must be called before the first helper is created,
+     * usually in {@link android.app.Application#onCreate()}. Pass null to go back to the default.
+     * <p>
+     * Every change to the default store goes through {@link android.content.SharedPreferences.Editor#apply()},
+     * which Android waits on when an activity stops. A
+     * {@link com.lionscribe.open.notificationchannelcompat.store.JournaledChannelStore} instead
+     * appends each change to a journal in the background, and can take over the existing settings
+     * with {@code importFrom(new SharedPreferencesChannelStore(context))} when it does not exist yet.
+     */
+    public static void setChannelStore(ChannelStore store) {
+        NotificationChannelRegistry.setStore(store);
+    }
+
+    /**
+     * Sets the metrics that are told, pre-Oreo, the decision and duration of each
+     * {@link NotificationChannelCompat#applyChannel}, and the duration of store reads, writes
+     * and preloads. Pass null to stop, which is the default. {@link CountingChannelMetrics}
+     * keeps lock-free counters and latency histograms.
+     */
+    public static void setChannelMetrics(ChannelMetrics metrics) {
+        NotificationChannelRegistry.setMetrics(metrics);
+    }
+
+    public static ChannelMetrics getChannelMetrics() {
+        return NotificationChannelRegistry.getMetrics();
+    }
+
+    /**
+     * Sets how long, pre-Oreo, the settings of deleted channels and groups are kept for when
+     * they are created again. Settings beyond the policy are purged in the background after a
+     * preload and after deletes. Pass null to keep them forever, which is the default.
+     */
+    public static void setRetentionPolicy(ChannelRetentionPolicy policy) {
+        NotificationChannelRegistry.setRetentionPolicy(policy);
+    }
+
+    /**
+     * Returns the store that keeps the channel settings pre-Oreo.
+     */
+    public ChannelStore getChannelStore() {
+        return _store;
+    }
+
+    /**
+     * Returns the in-memory copy of the pre-Oreo channel settings that the helper reads from.
+     * Changes made through it are seen by the helper at once.
+     */
+    public ChannelCatalog getChannelCatalog() {
+        return _registry._catalog;
     }
 
     public static String makeKey(String pref, String id) {
         return String.format(pref, id);
     }
 
+    /**
+     * Returns the id that the key was made of with {@link #makeKey(String, String)}, or null if
+     * the key was not made of this pref.
+     */
+    public static String idFromKey(String pref, String key) {
+        int prefixLength = pref.length() - 2; // all prefs end with %s
+        if (key.length() > prefixLength && key.regionMatches(0, pref, 0, prefixLength))
+            return key.substring(prefixLength);
+        return null;
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.O)
     private static List<NotificationChannelCompat> convertChannelListToCompat(List<NotificationChannel> originals) {
         List<NotificationChannelCompat> channels = new ArrayList<>(originals.size());
@@ -120,7 +287,7 @@ public final class NotificationChannelManagerHelper {
     }
 
     public boolean isNotificationsEnabled() {
-        return _prefs.getBoolean(PREF_KEY_CHANNELS_ALL_ENABLED, true);
+        return _registry.isNotificationsEnabled();
     }
 
     /**
@@ -147,21 +314,14 @@ public final class NotificationChannelManagerHelper {
             _manager.createNotificationChannelGroup(group.getOreoVersion());
             return;
         }
-        String groupId = group.getId();
-        SharedPreferences.Editor editor = _prefs.edit();
-        if (!_groupIds.contains(groupId)) {
-            _groupIds.add(groupId);
-            editor.putStringSet(PREF_KEY_GROUPS_IDS, _groupIds);
-        }
-        editor.putString(makeKey(PREF_KEY_GROUP_NAME, groupId), group.getName().toString());
-        editor.putString(makeKey(PREF_KEY_GROUP_DESCRIPTION, groupId), group.getDescription());
-        if (!_prefs.contains(makeKey(PREF_KEY_GROUP_ENABLED, groupId))) // we don't overwite this pref, even if there from before
-            editor.putBoolean(makeKey(PREF_KEY_GROUP_ENABLED, groupId), group.isEnabled());
-        editor.apply();
+        createNotificationChannelGroups(Collections.singletonList(group));
     }
 
     /**
      * Creates multiple notification channel groups.
+     * <p>
+     * Pre-Oreo, all groups are written in a single edit, and nothing is written if none of
+     * the groups changed.
      *
      * @param groups The list of groups to create
      */
@@ -170,8 +330,10 @@ public final class NotificationChannelManagerHelper {
             _manager.createNotificationChannelGroups(convertGroupCompatToList(groups));
             return;
         }
-        for (NotificationChannelGroupCompat g : groups)
-            createNotificationChannelGroup(g);
+        List<GroupRecord> records = new ArrayList<>(groups.size());
+        for (NotificationChannelGroupCompat group : groups)
+            records.add(group.toRecord());
+        _registry._catalog.createGroups(records);
     }
 
     /**
@@ -202,56 +364,15 @@ public final class NotificationChannelManagerHelper {
             _manager.createNotificationChannel(channel.getOreoVersion());
             return;
         }
-        String channelId = channel.getId();
-        if (_channelIds.contains(channelId)) {
-            if (!channel.getName().equals(prefsGetString(PREF_KEY_CHANNEL_NAME, channelId, "Error"))) {
-                _prefs.edit().putString(makeKey(PREF_KEY_CHANNEL_NAME, channelId), channel.getName().toString()).apply();
-            }
-            if (!channel.getDescription().equals(prefsGetString(PREF_KEY_CHANNEL_DESCRIPTION, channelId, "Error"))) {
-                _prefs.edit().putString(makeKey(PREF_KEY_CHANNEL_DESCRIPTION, channelId), channel.getDescription()).apply();
-            }
-            // We do not change anything else once set
-            return;
-        }
-
-        SharedPreferences.Editor editor = _prefs.edit();
-        _channelIds.add(channelId);
-        editor.putStringSet(PREF_KEY_CHANNELS_IDS, _channelIds);
-        editor.putString(makeKey(PREF_KEY_CHANNEL_NAME, channelId), channel.getName().toString());
-        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_ENABLED, channelId), channel.isEnabled());
-        editor.putString(makeKey(PREF_KEY_CHANNEL_IMPORTANCE, channelId), Integer.toString(channel.getImportance())); // we need it as string, as it's set as value in dropdown
-        editor.putString(makeKey(PREF_KEY_CHANNEL_DESCRIPTION, channelId), channel.getDescription());
-        editor.putString(makeKey(PREF_KEY_CHANNEL_GROUP, channelId), channel.getGroup());
-        editor.putInt(makeKey(PREF_KEY_CHANNEL_LOCKSCREENVISIBILITY, channelId), channel.getLockscreenVisibility());
-        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_LIGHTS, channelId), channel.shouldShowLights());
-        editor.putInt(makeKey(PREF_KEY_CHANNEL_LIGHTCOLOR, channelId), channel.getLightColor());
-        editor.putString(makeKey(PREF_KEY_CHANNEL_SOUND, channelId), channel.getSound() == null ? null : channel.getSound().toString());
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && _prefs.contains(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId))) {
-            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId), channel.getAudioAttributes().getContentType());
-            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS, channelId), channel.getAudioAttributes().getFlags());
-            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE, channelId), channel.getAudioAttributes().getUsage());
-        }
-        editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOSTREAMTYPE, channelId), channel.getAudioStreamType());
-        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_VIBRATIONENABLED, channelId), channel.shouldVibrate());
-
-        long[] vibrationPattern = channel.getVibrationPattern();
-        String vibrationPatternStr = null;
-        if (vibrationPattern != null) {
-            StringBuilder vibrationPatternBldr = new StringBuilder(vibrationPattern.length * 4); // Guessing size
-            for (long val : vibrationPattern) {
-                vibrationPatternBldr.append(Long.toString(val)); // we are not using 16 byte hex for long, as comma separated will be smaller, due to small values
-                vibrationPatternBldr.append(',');
-            }
-            vibrationPatternStr = vibrationPatternBldr.toString();
-        }
-        editor.putString(makeKey(PREF_KEY_CHANNEL_VIBRATION, channelId), vibrationPatternStr);
-
-        editor.apply();
+        createNotificationChannels(Collections.singletonList(channel));
     }
 
     /**
      * Creates multiple notification channels that different notifications can be posted to. See
      * {#createNotificationChannel(NotificationChannel)}.
+     * <p>
+     * Pre-Oreo, all channels are written in a single edit, and nothing is written if none of
+     * the channels changed.
      *
      * @param channels the list of channels to attempt to create.
      */
@@ -260,9 +381,10 @@ public final class NotificationChannelManagerHelper {
             _manager.createNotificationChannels(convertChannelCompatToList(channels));
             return;
         }
-        for (NotificationChannelCompat c : channels)
-            createNotificationChannel(c);
-
+        List<ChannelRecord> records = new ArrayList<>(channels.size());
+        for (NotificationChannelCompat channel : channels)
+            records.add(channel.toRecord());
+        _registry._catalog.createChannels(records);
     }
 
     /**
@@ -275,43 +397,8 @@ public final class NotificationChannelManagerHelper {
             return new NotificationChannelCompat(_manager.getNotificationChannel(channelId));
 
         }
-        if (!_channelIds.contains(channelId))
-            return null;
-
-        int importance = Integer.parseInt(prefsGetString(PREF_KEY_CHANNEL_IMPORTANCE, channelId, Integer.toString(NotificationManagerCompat.IMPORTANCE_DEFAULT))); // as Pref is a string, we have to jump through loop to get is as int
-        NotificationChannelCompat channel = new NotificationChannelCompat(channelId, prefsGetString(PREF_KEY_CHANNEL_NAME, channelId, "Error"), importance);
-        channel.setDescription(prefsGetString(PREF_KEY_CHANNEL_DESCRIPTION, channelId, "None"));
-        channel.setEnabled(prefsGetBoolean(PREF_KEY_CHANNEL_ENABLED, channelId, channel.isEnabled()));
-        channel.setGroup(prefsGetString(PREF_KEY_CHANNEL_GROUP, channelId, null));
-        channel.setLockscreenVisibility(prefsGetInt(PREF_KEY_CHANNEL_LOCKSCREENVISIBILITY, channelId, channel.getLockscreenVisibility()));
-        channel.enableLights(prefsGetBoolean(PREF_KEY_CHANNEL_LIGHTS, channelId, channel.shouldShowLights()));
-        channel.setLightColor(prefsGetInt(PREF_KEY_CHANNEL_LIGHTCOLOR, channelId, channel.getLightColor()));
-
-        String soundUriStr = prefsGetString(PREF_KEY_CHANNEL_SOUND, channelId, null);
-        Uri soundUri = TextUtils.isEmpty(soundUriStr) ? null : Uri.parse(soundUriStr);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && _prefs.contains(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId))) {
-            AudioAttributes.Builder audioBuilder = new AudioAttributes.Builder();
-            audioBuilder.setContentType(prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId, 0));
-            audioBuilder.setFlags(prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS, channelId, 0));
-            audioBuilder.setUsage(prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE, channelId, 0));
-
-            channel.setSound(soundUri, audioBuilder.build());
-        }
-        channel.setSound(soundUri, prefsGetInt(PREF_KEY_CHANNEL_AUDIOSTREAMTYPE, channelId, channel.getAudioStreamType())); // support pre-lollypop
-
-        channel.enableVibration(prefsGetBoolean(PREF_KEY_CHANNEL_VIBRATIONENABLED, channelId, channel.shouldVibrate()));
-        String vibrationPatternStr = prefsGetString(PREF_KEY_CHANNEL_VIBRATION, channelId, null);
-        if (vibrationPatternStr != null) {
-            String[] vibrationPatternStrArray = vibrationPatternStr.split(",");
-            int length = vibrationPatternStrArray.length;
-            long[] vibrationPattern = new long[length];
-            for (int i = 0; i < length; ++i) {
-                vibrationPattern[i] = Long.parseLong(vibrationPatternStrArray[i]);
-            }
-            channel.setVibrationPattern(vibrationPattern);
-        }
-
-        return channel;
+        NotificationChannelCompat channel = _registry.getChannel(channelId);
+        return channel == null ? null : new NotificationChannelCompat(channel); // return a copy, as registry's instance is shared
     }
 
     /**
@@ -321,13 +408,188 @@ public final class NotificationChannelManagerHelper {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             return convertChannelListToCompat(_manager.getNotificationChannels());
         }
-        ArrayList<NotificationChannelCompat> list = new ArrayList<>(_channelIds.size());
-        for (String channelId : _channelIds) {
-            list.add(getNotificationChannel(channelId));
+        Set<String> channelIds = _registry.getChannelIds(); // immutable snapshot, no lock needed
+        ArrayList<NotificationChannelCompat> list = new ArrayList<>(channelIds.size());
+        for (String channelId : channelIds) {
+            NotificationChannelCompat channel = getNotificationChannel(channelId);
+            if (channel != null)
+                list.add(channel);
         }
         return list;
     }
 
+    /**
+     * Returns the notification channels sorted by name, the way the default locale sorts,
+     * ignoring case, and then by id. Pre-Oreo the order comes from sort keys kept by the
+     * registry, so only a change of name, of the ids or of the locale sorts again.
+     */
+    public List<NotificationChannelCompat> getSortedNotificationChannels() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            List<NotificationChannelCompat> list = convertChannelListToCompat(_manager.getNotificationChannels());
+            final Collator collator = ChannelSortKeys.newCollator(Locale.getDefault());
+            final HashMap<String, CollationKey> keys = new HashMap<>(); // each name keyed once
+            for (NotificationChannelCompat channel : list)
+                keys.put(channel.getId(), collator.getCollationKey(channel.getName() == null ? "" : channel.getName().toString()));
+            Collections.sort(list, new Comparator<NotificationChannelCompat>() {
+                @Override
+                public int compare(NotificationChannelCompat obj1, NotificationChannelCompat obj2) {
+                    int result = keys.get(obj1.getId()).compareTo(keys.get(obj2.getId()));
+                    return result != 0 ? result : obj1.getId().compareTo(obj2.getId());
+                }
+            });
+            return list;
+        }
+        List<String> channelIds = _registry.getSortKeys().getSortedChannelIds(Locale.getDefault());
+        ArrayList<NotificationChannelCompat> list = new ArrayList<>(channelIds.size());
+        for (String channelId : channelIds) {
+            NotificationChannelCompat channel = getNotificationChannel(channelId);
+            if (channel != null)
+                list.add(channel);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the notification channels that belong to the given group, or the channels that
+     * don't belong to any group if groupId is null.
+     */
+    public List<NotificationChannelCompat> getNotificationChannelsOfGroup(String groupId) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            List<NotificationChannelCompat> list = new ArrayList<>();
+            for (NotificationChannel channel : _manager.getNotificationChannels()) {
+                if (TextUtils.equals(groupId, channel.getGroup()))
+                    list.add(new NotificationChannelCompat(channel));
+            }
+            return list;
+        }
+        Set<String> channelIds = _registry.getChannelIdsOfGroup(groupId); // immutable snapshot, no lock needed
+        ArrayList<NotificationChannelCompat> list = new ArrayList<>(channelIds.size());
+        for (String channelId : channelIds) {
+            NotificationChannelCompat channel = getNotificationChannel(channelId);
+            if (channel != null)
+                list.add(channel);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the ids of the channels that have a word starting with each word of the query in
+     * their name, description or group name, ignoring case, in no particular order. A query
+     * without words returns all channels. Pre-Oreo this is answered from an in-memory index,
+     * which is built on the first search, so make that one off the main thread.
+     */
+    public Set<String> searchNotificationChannelIds(String query) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            HashSet<String> ids = new HashSet<>();
+            for (NotificationChannel channel : searchSystemChannels(query))
+                ids.add(channel.getId());
+            return ids;
+        }
+        return _registry.getSearchIndex().search(query);
+    }
+
+    /**
+     * Returns the channels that match the query, in no particular order. See
+     * {@link #searchNotificationChannelIds(String)}.
+     */
+    public List<NotificationChannelCompat> searchNotificationChannels(String query) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return convertChannelListToCompat(searchSystemChannels(query));
+        Set<String> channelIds = _registry.getSearchIndex().search(query);
+        ArrayList<NotificationChannelCompat> list = new ArrayList<>(channelIds.size());
+        for (String channelId : channelIds) {
+            NotificationChannelCompat channel = getNotificationChannel(channelId);
+            if (channel != null)
+                list.add(channel);
+        }
+        return list;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private List<NotificationChannel> searchSystemChannels(String query) {
+        HashMap<String, String> groupNames = new HashMap<>();
+        for (NotificationChannelGroup group : _manager.getNotificationChannelGroups())
+            groupNames.put(group.getId(), group.getName() == null ? null : group.getName().toString());
+        List<NotificationChannel> list = new ArrayList<>();
+        for (NotificationChannel channel : _manager.getNotificationChannels()) {
+            String name = channel.getName() == null ? null : channel.getName().toString();
+            if (ChannelSearchIndex.matches(query, name, channel.getDescription(), groupNames.get(channel.getGroup())))
+                list.add(channel);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the ids of the page of channels that match the query, in order of id. Pre-Oreo
+     * this is answered from in-memory indexes kept by the registry, without making a
+     * {@link NotificationChannelCompat} per channel. The indexes are built on the first query,
+     * so make that one off the main thread. On Oreo and later a channel is enabled unless its
+     * importance is none.
+     */
+    public List<String> queryNotificationChannelIds(ChannelQuery query) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            List<NotificationChannel> channels = querySystemChannels(query);
+            List<String> ids = new ArrayList<>(channels.size());
+            for (NotificationChannel channel : channels)
+                ids.add(channel.getId());
+            return ids;
+        }
+        return _registry.getQueryIndex().query(query);
+    }
+
+    /**
+     * Returns the page of channels that match the query, in order of id. See
+     * {@link #queryNotificationChannelIds(ChannelQuery)}.
+     */
+    public List<NotificationChannelCompat> queryNotificationChannels(ChannelQuery query) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return convertChannelListToCompat(querySystemChannels(query));
+        List<String> channelIds = _registry.getQueryIndex().query(query);
+        ArrayList<NotificationChannelCompat> list = new ArrayList<>(channelIds.size());
+        for (String channelId : channelIds) {
+            NotificationChannelCompat channel = getNotificationChannel(channelId);
+            if (channel != null)
+                list.add(channel);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the number of channels that match the query, ignoring its page. See
+     * {@link #queryNotificationChannelIds(ChannelQuery)}.
+     */
+    public int countNotificationChannels(ChannelQuery query) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return querySystemChannels(new ChannelQuery(), query).size(); // the default page is all of them
+        return _registry.getQueryIndex().count(query);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private List<NotificationChannel> querySystemChannels(ChannelQuery query) {
+        return querySystemChannels(query, query);
+    }
+
+    // Returns the system channels that match the criteria of query, in the page of page
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private List<NotificationChannel> querySystemChannels(ChannelQuery page, ChannelQuery query) {
+        List<NotificationChannel> matches = new ArrayList<>();
+        for (NotificationChannel channel : _manager.getNotificationChannels()) {
+            int importance = channel.getImportance();
+            boolean hasSound = channel.getSound() != null && !channel.getSound().toString().isEmpty();
+            if (query.matches(channel.getGroup(), importance != NotificationManager.IMPORTANCE_NONE, importance, hasSound, channel.shouldVibrate()))
+                matches.add(channel);
+        }
+        Collections.sort(matches, new Comparator<NotificationChannel>() {
+            @Override
+            public int compare(NotificationChannel obj1, NotificationChannel obj2) {
+                return obj1.getId().compareTo(obj2.getId());
+            }
+        });
+        int from = Math.min(page.getOffset(), matches.size());
+        int to = (int) Math.min((long) from + page.getLimit(), matches.size());
+        return new ArrayList<>(matches.subList(from, to));
+    }
+
     /**
      * Deletes the given notification channel.
      *
@@ -340,11 +602,8 @@ public final class NotificationChannelManagerHelper {
             _manager.deleteNotificationChannel(channelId);
             return;
         }
-        if (_channelIds.contains(channelId)) {
-            _channelIds.remove(channelId);
-            _prefs.edit().putStringSet(PREF_KEY_CHANNELS_IDS, _channelIds).apply();
-            // We don't delete settings, as those will be reused if recreated
-        }
+        _registry._catalog.deleteChannel(channelId);
+        _registry.scheduleCompaction(getDefaultExecutor());
     }
 
     /**
@@ -364,12 +623,8 @@ public final class NotificationChannelManagerHelper {
             return null; // not found
         }
 
-        if (!_groupIds.contains(channelGroupId))
-            return null;
-
-        NotificationChannelGroupCompat group = new NotificationChannelGroupCompat(channelGroupId, prefsGetString(PREF_KEY_GROUP_NAME, channelGroupId, "Error"));
-        group.setEnabled(prefsGetBoolean(PREF_KEY_GROUP_ENABLED, channelGroupId, true));
-        return group;
+        NotificationChannelGroupCompat group = _registry.getGroup(channelGroupId);
+        return group == null ? null : group.clone(); // return a copy, as registry's instance is shared
     }
 
     /**
@@ -380,9 +635,42 @@ public final class NotificationChannelManagerHelper {
             return convertGroupListToCompat(_manager.getNotificationChannelGroups());
 
         }
-        ArrayList<NotificationChannelGroupCompat> list = new ArrayList<>(_groupIds.size());
-        for (String groupId : _groupIds) {
-            list.add(getNotificationChannelGroup(groupId));
+        Set<String> groupIds = _registry.getGroupIds(); // immutable snapshot, no lock needed
+        ArrayList<NotificationChannelGroupCompat> list = new ArrayList<>(groupIds.size());
+        for (String groupId : groupIds) {
+            NotificationChannelGroupCompat group = getNotificationChannelGroup(groupId);
+            if (group != null)
+                list.add(group);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the notification channel groups sorted by name, the same way as
+     * {@link #getSortedNotificationChannels()}.
+     */
+    public List<NotificationChannelGroupCompat> getSortedNotificationChannelGroups() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            List<NotificationChannelGroupCompat> list = convertGroupListToCompat(_manager.getNotificationChannelGroups());
+            final Collator collator = ChannelSortKeys.newCollator(Locale.getDefault());
+            final HashMap<String, CollationKey> keys = new HashMap<>();
+            for (NotificationChannelGroupCompat group : list)
+                keys.put(group.getId(), collator.getCollationKey(group.getName() == null ? "" : group.getName().toString()));
+            Collections.sort(list, new Comparator<NotificationChannelGroupCompat>() {
+                @Override
+                public int compare(NotificationChannelGroupCompat obj1, NotificationChannelGroupCompat obj2) {
+                    int result = keys.get(obj1.getId()).compareTo(keys.get(obj2.getId()));
+                    return result != 0 ? result : obj1.getId().compareTo(obj2.getId());
+                }
+            });
+            return list;
+        }
+        List<String> groupIds = _registry.getSortKeys().getSortedGroupIds(Locale.getDefault());
+        ArrayList<NotificationChannelGroupCompat> list = new ArrayList<>(groupIds.size());
+        for (String groupId : groupIds) {
+            NotificationChannelGroupCompat group = getNotificationChannelGroup(groupId);
+            if (group != null)
+                list.add(group);
         }
         return list;
     }
@@ -396,32 +684,291 @@ public final class NotificationChannelManagerHelper {
             _manager.deleteNotificationChannelGroup(groupId);
             return;
         }
-        if (_groupIds.contains(groupId)) {
-            SharedPreferences.Editor editor = _prefs.edit();
-            // first delete all channels that have this id
-            for (String channelId : _channelIds) {
-                if (_prefs.getString(makeKey(PREF_KEY_CHANNEL_GROUP, channelId), "").equals(groupId)) {
-                    _channelIds.remove(channelId);
+        _registry._catalog.deleteGroup(groupId);
+        _registry.scheduleCompaction(getDefaultExecutor());
+    }
+
+    /**
+     * Like {@link #createNotificationChannelGroup(NotificationChannelGroupCompat)}, but runs on
+     * the executor of this helper.
+     */
+    public ListenableFuture<Void> createNotificationChannelGroupAsync(@NonNull final NotificationChannelGroupCompat group) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createNotificationChannelGroup(group);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Like {@link #createNotificationChannelGroups(List)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<Void> createNotificationChannelGroupsAsync(@NonNull final List<NotificationChannelGroupCompat> groups) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createNotificationChannelGroups(groups);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Like {@link #createNotificationChannel(NotificationChannelCompat)}, but runs on the
+     * executor of this helper.
+     */
+    public ListenableFuture<Void> createNotificationChannelAsync(@NonNull final NotificationChannelCompat channel) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createNotificationChannel(channel);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Like {@link #createNotificationChannels(List)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<Void> createNotificationChannelsAsync(@NonNull final List<NotificationChannelCompat> channels) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createNotificationChannels(channels);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Like {@link #getNotificationChannel(String)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<NotificationChannelCompat> getNotificationChannelAsync(final String channelId) {
+        return submit(new Callable<NotificationChannelCompat>() {
+            @Override
+            public NotificationChannelCompat call() {
+                return getNotificationChannel(channelId);
+            }
+        }, false);
+    }
+
+    /**
+     * Like {@link #getNotificationChannels()}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<List<NotificationChannelCompat>> getNotificationChannelsAsync() {
+        return submit(new Callable<List<NotificationChannelCompat>>() {
+            @Override
+            public List<NotificationChannelCompat> call() {
+                return getNotificationChannels();
+            }
+        }, false);
+    }
+
+    /**
+     * Like {@link #deleteNotificationChannel(String)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<Void> deleteNotificationChannelAsync(final String channelId) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteNotificationChannel(channelId);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Like {@link #getNotificationChannelGroup(String)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<NotificationChannelGroupCompat> getNotificationChannelGroupAsync(final String channelGroupId) {
+        return submit(new Callable<NotificationChannelGroupCompat>() {
+            @Override
+            public NotificationChannelGroupCompat call() {
+                return getNotificationChannelGroup(channelGroupId);
+            }
+        }, false);
+    }
+
+    /**
+     * Like {@link #getNotificationChannelGroups()}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<List<NotificationChannelGroupCompat>> getNotificationChannelGroupsAsync() {
+        return submit(new Callable<List<NotificationChannelGroupCompat>>() {
+            @Override
+            public List<NotificationChannelGroupCompat> call() {
+                return getNotificationChannelGroups();
+            }
+        }, false);
+    }
+
+    /**
+     * Like {@link #deleteNotificationChannelGroup(String)}, but runs on the executor of this helper.
+     */
+    public ListenableFuture<Void> deleteNotificationChannelGroupAsync(final String groupId) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                deleteNotificationChannelGroup(groupId);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+     * Purges, pre-Oreo, the settings of deleted channels and groups that the retention policy
+     * no longer keeps, and clears references to groups whose settings are gone. Runs on the
+     * executor of this helper. Does nothing on Oreo and later.
+     *
+     * @return a future with the number of channels and groups purged
+     */
+    public ListenableFuture<Integer> compactAsync() {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    return 0;
+                return _registry._catalog.compact(NotificationChannelRegistry.getRetentionPolicy());
+            }
+        }, true);
+    }
+
+    /**
+     * Returns a future that completes once all async creates and deletes started so far, by any
+     * helper, are done. Wait on it before posting notifications to channels that were created
+     * asynchronously. Failed writes don't fail the returned future, their own futures report it.
+     */
+    public ListenableFuture<Void> whenWritesComplete() {
+        final Object[] pending = _registry._pendingWrites.toArray();
+        return CallbackToFutureAdapter.getFuture(new CallbackToFutureAdapter.Resolver<Void>() {
+            @Override
+            public Object attachCompleter(@NonNull final CallbackToFutureAdapter.Completer<Void> completer) {
+                if (pending.length == 0) {
+                    completer.set(null);
+                    return "whenWritesComplete";
                 }
+                final AtomicInteger remaining = new AtomicInteger(pending.length);
+                Runnable onDone = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (remaining.decrementAndGet() == 0)
+                            completer.set(null);
+                    }
+                };
+                for (Object future : pending)
+                    ((ListenableFuture<?>) future).addListener(onDone, DIRECT_EXECUTOR);
+                return "whenWritesComplete";
             }
-            _groupIds.remove(groupId);
-            editor.putStringSet(PREF_KEY_GROUPS_IDS, _groupIds);
-            editor.putStringSet(PREF_KEY_CHANNELS_IDS, _channelIds);
-            editor.apply();
-            // We don't delete any settings, as those will be reused if recreated
-        }
+        });
     }
 
-    // helper classes
-    private String prefsGetString(String prefs, String id, String defaultValue) {
-        return _prefs.getString(makeKey(prefs, id), defaultValue);
+    /**
+     * Prints the state of the library, for example from {@link android.app.Service#dump} so that
+     * it shows in dumpsys. The first line is a header, followed by one "key=value" line per
+     * value. Keys are stable and grouped by a prefix: registry, catalog, search,
+     * query and sort (once made), store and metrics.
+     * Pre-Oreo this reads the ids of the store, and may read the whole store.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("NotificationChannelCompat:");
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("format", DUMP_FORMAT_VERSION);
+        values.put("sdk_int", Build.VERSION.SDK_INT);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            values.put("mode", "system"); // the platform keeps the channels
+            values.put("channels", _manager.getNotificationChannels().size());
+            values.put("groups", _manager.getNotificationChannelGroups().size());
+            printValues(writer, null, values);
+            return;
+        }
+        values.put("mode", "emulated");
+        values.put("notifications_enabled", _registry.isNotificationsEnabled());
+        printValues(writer, null, values);
+
+        values.clear();
+        _registry.collectDiagnostics(values);
+        printValues(writer, "registry", values);
+
+        values.clear();
+        _registry._catalog.collectDiagnostics(values);
+        printValues(writer, "catalog", values);
+
+        ChannelSearchIndex searchIndex = _registry.peekSearchIndex();
+        if (searchIndex != null) {
+            values.clear();
+            searchIndex.collectDiagnostics(values);
+            printValues(writer, "search", values);
+        }
+
+        ChannelQueryIndex queryIndex = _registry.peekQueryIndex();
+        if (queryIndex != null) {
+            values.clear();
+            queryIndex.collectDiagnostics(values);
+            printValues(writer, "query", values);
+        }
+
+        ChannelSortKeys sortKeys = _registry.peekSortKeys();
+        if (sortKeys != null) {
+            values.clear();
+            sortKeys.collectDiagnostics(values);
+            printValues(writer, "sort", values);
+        }
+
+        values.clear();
+        values.put("class", _store.getClass().getName());
+        if (_store instanceof DiagnosableChannelStore)
+            ((DiagnosableChannelStore) _store).collectDiagnostics(values);
+        printValues(writer, "store", values);
+
+        values.clear();
+        ChannelMetrics metrics = _registry._catalog.getMetrics();
+        values.put("class", metrics == null ? "none" : metrics.getClass().getName());
+        if (metrics instanceof CountingChannelMetrics)
+            ((CountingChannelMetrics) metrics).collectDiagnostics(values);
+        printValues(writer, "metrics", values);
+        writer.flush();
     }
 
-    private boolean prefsGetBoolean(String prefs, String id, boolean defaultValue) {
-        return _prefs.getBoolean(makeKey(prefs, id), defaultValue);
+    private static void printValues(PrintWriter writer, String prefix, Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writer.print("  ");
+            if (prefix != null) {
+                writer.print(prefix);
+                writer.print('.');
+            }
+            writer.print(entry.getKey());
+            writer.print('=');
+            writer.println(entry.getValue());
+        }
     }
 
-    private int prefsGetInt(String prefs, String id, int defaultValue) {
-        return _prefs.getInt(makeKey(prefs, id), defaultValue);
+    private <T> ListenableFuture<T> submit(final Callable<T> task, boolean write) {
+        final ListenableFuture<T> future = CallbackToFutureAdapter.getFuture(new CallbackToFutureAdapter.Resolver<T>() {
+            @Override
+            public Object attachCompleter(@NonNull final CallbackToFutureAdapter.Completer<T> completer) {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            completer.set(task.call());
+                        } catch (Throwable e) {
+                            completer.setException(e);
+                        }
+                    }
+                });
+                return task;
+            }
+        });
+        if (write) {
+            _registry._pendingWrites.add(future);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    _registry._pendingWrites.remove(future);
+                }
+            }, DIRECT_EXECUTOR);
+        }
+        return future;
     }
-}
\ No newline at end of file
+}
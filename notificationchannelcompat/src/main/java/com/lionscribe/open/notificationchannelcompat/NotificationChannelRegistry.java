@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.content.Context;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelDecision;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelMetrics;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelQueryIndex;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelRetentionPolicy;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelSearchIndex;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelSortKeys;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide in-memory copy of the pre-Oreo channel settings.
+ * <p>
+ * The settings themselves are kept by the platform independent {@link ChannelCatalog}. The
+ * registry adds what needs Android: the {@link NotificationChannelCompat} and
+ * {@link NotificationChannelGroupCompat} made of them, and the compiled
+ * {@link ChannelDeliveryTemplate} of each channel. These are dropped whenever the catalog reports
+ * a change, and are cached the same lock-free way the catalog caches its records.
+ */
+final class NotificationChannelRegistry implements ChannelStore.OnChangeListener {
+    private static ChannelStore sStore;
+    private static ChannelMetrics sMetrics;
+    private static volatile ChannelRetentionPolicy sRetentionPolicy = ChannelRetentionPolicy.KEEP_ALL;
+    private static NotificationChannelRegistry sInstance;
+
+    final Context _context;
+    final ChannelStore _store;
+    final ChannelCatalog _catalog;
+    final Set<ListenableFuture<?>> _pendingWrites = Collections.newSetFromMap(new ConcurrentHashMap<ListenableFuture<?>, Boolean>());
+    private final ConcurrentHashMap<String, NotificationChannelCompat> _channels = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NotificationChannelGroupCompat> _groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ChannelDeliveryTemplate> _templates = new ConcurrentHashMap<>();
+    private final AtomicLong _generation = new AtomicLong(); // bumped on every invalidation
+    private final AtomicLong _templateHits = new AtomicLong();
+    private final AtomicLong _templateMisses = new AtomicLong();
+    private final AtomicBoolean _compactionScheduled = new AtomicBoolean();
+    private ChannelSearchIndex _searchIndex; // guarded by this, made on first search
+    private ChannelQueryIndex _queryIndex; // guarded by this, made on first query
+    private ChannelSortKeys _sortKeys; // guarded by this, made on first sorted read
+
+    private NotificationChannelRegistry(Context context, ChannelStore store) {
+        _context = context;
+        _store = store;
+        _catalog = new ChannelCatalog(store);
+        _catalog.setMetrics(sMetrics);
+        _catalog.setTracer(AndroidChannelTracer.INSTANCE);
+        _catalog.addOnChangeListener(this);
+    }
+
+    static synchronized NotificationChannelRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new NotificationChannelRegistry(appContext, sStore != null ? sStore : new SharedPreferencesChannelStore(appContext));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Replaces the store of the registry. Pass null to go back to the default store.
+     */
+    static synchronized void setStore(ChannelStore store) {
+        if (sInstance != null) {
+            sInstance.closeIndexes();
+            sInstance._catalog.close();
+            sInstance = null;
+        }
+        sStore = store;
+    }
+
+    /**
+     * Sets the metrics of the registry, and of any registry made later. Pass null for none.
+     */
+    static synchronized void setMetrics(ChannelMetrics metrics) {
+        sMetrics = metrics;
+        if (sInstance != null)
+            sInstance._catalog.setMetrics(metrics);
+    }
+
+    static synchronized ChannelMetrics getMetrics() {
+        return sMetrics;
+    }
+
+    /**
+     * Sets how long the settings of deleted channels and groups are kept. Pass null to keep
+     * them forever, which is the default.
+     */
+    static void setRetentionPolicy(ChannelRetentionPolicy policy) {
+        sRetentionPolicy = policy != null ? policy : ChannelRetentionPolicy.KEEP_ALL;
+    }
+
+    static ChannelRetentionPolicy getRetentionPolicy() {
+        return sRetentionPolicy;
+    }
+
+    /**
+     * Compacts the store on the executor with the retention policy, unless the policy keeps
+     * everything. Calls made while a compaction is waiting to run are coalesced into it.
+     */
+    void scheduleCompaction(Executor executor) {
+        if (sRetentionPolicy.keepsAll() || !_compactionScheduled.compareAndSet(false, true))
+            return;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                _compactionScheduled.set(false);
+                _catalog.compact(sRetentionPolicy);
+            }
+        });
+    }
+
+    boolean isNotificationsEnabled() {
+        return _catalog.isNotificationsEnabled();
+    }
+
+    /**
+     * Returns the ids of the existing channels. The returned set is an immutable snapshot.
+     */
+    Set<String> getChannelIds() {
+        return _catalog.getChannelIds();
+    }
+
+    /**
+     * Returns the ids of the existing groups. The returned set is an immutable snapshot.
+     */
+    Set<String> getGroupIds() {
+        return _catalog.getGroupIds();
+    }
+
+    /**
+     * Returns the ids of the existing channels of the group, or of the channels without group
+     * if groupId is null. The returned set is an immutable snapshot.
+     */
+    Set<String> getChannelIdsOfGroup(String groupId) {
+        return _catalog.getChannelIdsOfGroup(groupId);
+    }
+
+    /**
+     * Returns the cached channel. The returned instance is shared, and must not be modified.
+     */
+    NotificationChannelCompat getChannel(String channelId) {
+        NotificationChannelCompat channel = _channels.get(channelId);
+        if (channel != null)
+            return channel;
+        long generation = _generation.get();
+        ChannelRecord record = _catalog.getChannel(channelId);
+        if (record == null)
+            return null;
+        return cache(_channels, channelId, NotificationChannelCompat.fromRecord(record), generation);
+    }
+
+    /**
+     * Returns the cached group. The returned instance is shared, and must not be modified.
+     */
+    NotificationChannelGroupCompat getGroup(String groupId) {
+        NotificationChannelGroupCompat group = _groups.get(groupId);
+        if (group != null)
+            return group;
+        long generation = _generation.get();
+        GroupRecord record = _catalog.getGroup(groupId);
+        if (record == null)
+            return null;
+        return cache(_groups, groupId, NotificationChannelGroupCompat.fromRecord(record), generation);
+    }
+
+    /**
+     * Returns the compiled delivery template of the channel, or null if there is no such channel.
+     */
+    ChannelDeliveryTemplate getDeliveryTemplate(String channelId) {
+        ChannelDeliveryTemplate template = _templates.get(channelId);
+        if (template != null) {
+            _templateHits.incrementAndGet();
+            return template;
+        }
+        _templateMisses.incrementAndGet();
+        long generation = _generation.get();
+        // The record is read once, and the channel made from it, so a cold lookup stays a single read
+        ChannelRecord record = _catalog.getChannel(channelId);
+        if (record == null)
+            return null;
+        NotificationChannelCompat channel = _channels.get(channelId);
+        if (channel == null)
+            channel = cache(_channels, channelId, NotificationChannelCompat.fromRecord(record), generation);
+        GroupRecord group = record.group == null ? null : _catalog.getGroup(record.group);
+        int blockReason = ChannelDecision.blockReason(isNotificationsEnabled(), record, group);
+        template = new ChannelDeliveryTemplate(_context, channel, blockReason);
+        return cache(_templates, channelId, template, generation);
+    }
+
+    /**
+     * Returns the search index of the channels, which follows the changes of the catalog once
+     * made.
+     */
+    synchronized ChannelSearchIndex getSearchIndex() {
+        if (_searchIndex == null)
+            _searchIndex = new ChannelSearchIndex(_catalog);
+        return _searchIndex;
+    }
+
+    /**
+     * Returns the search index if one was made, or null.
+     */
+    synchronized ChannelSearchIndex peekSearchIndex() {
+        return _searchIndex;
+    }
+
+    /**
+     * Returns the indexes of the channels by group and settings, which follow the changes of the
+     * catalog once made.
+     */
+    synchronized ChannelQueryIndex getQueryIndex() {
+        if (_queryIndex == null)
+            _queryIndex = new ChannelQueryIndex(_catalog);
+        return _queryIndex;
+    }
+
+    /**
+     * Returns the query index if one was made, or null.
+     */
+    synchronized ChannelQueryIndex peekQueryIndex() {
+        return _queryIndex;
+    }
+
+    /**
+     * Returns the sort keys of the channels and groups, which follow the changes of the catalog
+     * once made.
+     */
+    synchronized ChannelSortKeys getSortKeys() {
+        if (_sortKeys == null)
+            _sortKeys = new ChannelSortKeys(_catalog);
+        return _sortKeys;
+    }
+
+    /**
+     * Returns the sort keys if they were made, or null.
+     */
+    synchronized ChannelSortKeys peekSortKeys() {
+        return _sortKeys;
+    }
+
+    private synchronized void closeIndexes() {
+        if (_searchIndex != null) {
+            _searchIndex.close();
+            _searchIndex = null;
+        }
+        if (_queryIndex != null) {
+            _queryIndex.close();
+            _queryIndex = null;
+        }
+        if (_sortKeys != null) {
+            _sortKeys.close();
+            _sortKeys = null;
+        }
+    }
+
+    /**
+     * Reads all settings into memory, see {@link ChannelCatalog#preload()}, then compiles the
+     * templates of all channels.
+     */
+    void preload() {
+        _catalog.preload();
+        for (String channelId : getChannelIds())
+            getDeliveryTemplate(channelId);
+    }
+
+    /**
+     * Adds the sizes of the registry's own caches to out. See
+     * {@link ChannelCatalog#collectDiagnostics}.
+     */
+    void collectDiagnostics(Map<String, Object> out) {
+        long hits = _templateHits.get();
+        long misses = _templateMisses.get();
+        out.put("cached_channels", _channels.size());
+        out.put("cached_groups", _groups.size());
+        out.put("cached_templates", _templates.size());
+        out.put("template_hits", hits);
+        out.put("template_misses", misses);
+        out.put("template_hit_rate", hits + misses == 0 ? "n/a" : String.format(Locale.US, "%.4f", (double) hits / (hits + misses)));
+        out.put("pending_writes", _pendingWrites.size());
+    }
+
+    // Caches the value, unless an invalidation happened since the generation was read
+    private <T> T cache(ConcurrentHashMap<String, T> map, String key, T value, long generation) {
+        T existing = map.putIfAbsent(key, value);
+        if (existing != null)
+            return existing;
+        if (_generation.get() != generation)
+            map.remove(key, value); // may be stale, so let the next read go to the catalog
+        return value;
+    }
+
+    @Override
+    public void onChannelChanged(String channelId) {
+        _generation.incrementAndGet();
+        _channels.remove(channelId);
+        _templates.remove(channelId);
+    }
+
+    @Override
+    public void onGroupChanged(String groupId) {
+        _generation.incrementAndGet();
+        _groups.remove(groupId);
+        for (Iterator<ChannelDeliveryTemplate> iterator = _templates.values().iterator(); iterator.hasNext(); ) {
+            if (groupId.equals(iterator.next().mGroup))
+                iterator.remove();
+        }
+    }
+
+    @Override
+    public void onStoreChanged() {
+        // Anything may have changed, and templates are compiled with the notifications switch
+        _generation.incrementAndGet();
+        _channels.clear();
+        _groups.clear();
+        _templates.clear();
+    }
+}
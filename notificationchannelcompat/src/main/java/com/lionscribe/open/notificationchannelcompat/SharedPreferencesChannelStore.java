@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.ArraySet;
+
+import com.lionscribe.open.notificationchannelcompat.store.AbstractChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.DiagnosableChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+import com.lionscribe.open.notificationchannelcompat.store.VibrationPatterns;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.*;
+
+/**
+ * The default {@link com.lionscribe.open.notificationchannelcompat.store.ChannelStore}, which
+ * keeps every setting as its own key in the {@link #SHARED_PREFERENCE_NAME} preferences file,
+ * named by the PREF_KEY_* formats of {@link NotificationChannelManagerHelper}.
+ * <p>
+ * Changes made to the preferences by anyone else, such as a settings screen that edits them
+ * directly, are reported to the listeners. The store's own writes are reported once, when
+ * written, and their echo from the preferences listener is dropped.
+ */
+public class SharedPreferencesChannelStore extends AbstractChannelStore implements SharedPreferences.OnSharedPreferenceChangeListener, DiagnosableChannelStore {
+    private static final String[] CHANNEL_KEYS = {
+            PREF_KEY_CHANNEL_NAME, PREF_KEY_CHANNEL_DESCRIPTION, PREF_KEY_CHANNEL_ENABLED,
+            PREF_KEY_CHANNEL_IMPORTANCE, PREF_KEY_CHANNEL_LOCKSCREENVISIBILITY, PREF_KEY_CHANNEL_SOUND,
+            PREF_KEY_CHANNEL_LIGHTS, PREF_KEY_CHANNEL_LIGHTCOLOR, PREF_KEY_CHANNEL_VIBRATION,
+            PREF_KEY_CHANNEL_VIBRATIONENABLED, PREF_KEY_CHANNEL_GROUP,
+            PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS,
+            PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE, PREF_KEY_CHANNEL_AUDIOSTREAMTYPE, PREF_KEY_CHANNEL_DELETED};
+    private static final String[] GROUP_KEYS = {
+            PREF_KEY_GROUP_NAME, PREF_KEY_GROUP_DESCRIPTION, PREF_KEY_GROUP_ENABLED, PREF_KEY_GROUP_DELETED};
+
+    private static final Object REMOVED = new Object(); // written value of a removed key
+
+    final SharedPreferences _prefs;
+    private final File _file; // null if not known
+    // The last value this store wrote to each key, until the preferences report it back
+    private final ConcurrentHashMap<String, Object> _written = new ConcurrentHashMap<>();
+
+    public SharedPreferencesChannelStore(Context context) {
+        this(context.getSharedPreferences(SHARED_PREFERENCE_NAME, Context.MODE_PRIVATE),
+                new File(new File(context.getApplicationInfo().dataDir, "shared_prefs"), SHARED_PREFERENCE_NAME + ".xml"));
+    }
+
+    public SharedPreferencesChannelStore(SharedPreferences prefs) {
+        this(prefs, null);
+    }
+
+    private SharedPreferencesChannelStore(SharedPreferences prefs, File file) {
+        _prefs = prefs;
+        _file = file;
+        // SharedPreferences only keeps a weak reference to the listener, so whoever holds the store keeps it alive
+        _prefs.registerOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    public boolean isNotificationsEnabled() {
+        return _prefs.getBoolean(PREF_KEY_CHANNELS_ALL_ENABLED, true);
+    }
+
+    @Override
+    public Set<String> getChannelIds() {
+        return loadIds(PREF_KEY_CHANNELS_IDS);
+    }
+
+    @Override
+    public Set<String> getGroupIds() {
+        return loadIds(PREF_KEY_GROUPS_IDS);
+    }
+
+    @Override
+    public boolean containsChannel(String channelId) {
+        return getChannelIds().contains(channelId);
+    }
+
+    @Override
+    public boolean containsGroup(String groupId) {
+        return getGroupIds().contains(groupId);
+    }
+
+    @Override
+    public ChannelRecord readChannel(String channelId) {
+        if (!_prefs.contains(makeKey(PREF_KEY_CHANNEL_NAME, channelId)))
+            return null;
+        ChannelRecord channel = new ChannelRecord(channelId);
+        channel.importance = Integer.parseInt(prefsGetString(PREF_KEY_CHANNEL_IMPORTANCE, channelId, Integer.toString(ChannelRecord.IMPORTANCE_DEFAULT))); // as Pref is a string, we have to jump through loop to get is as int
+        channel.name = prefsGetString(PREF_KEY_CHANNEL_NAME, channelId, "Error");
+        channel.description = prefsGetString(PREF_KEY_CHANNEL_DESCRIPTION, channelId, "None");
+        channel.enabled = prefsGetBoolean(PREF_KEY_CHANNEL_ENABLED, channelId, channel.enabled);
+        channel.group = prefsGetString(PREF_KEY_CHANNEL_GROUP, channelId, null);
+        channel.lockscreenVisibility = prefsGetInt(PREF_KEY_CHANNEL_LOCKSCREENVISIBILITY, channelId, channel.lockscreenVisibility);
+        channel.lights = prefsGetBoolean(PREF_KEY_CHANNEL_LIGHTS, channelId, channel.lights);
+        channel.lightColor = prefsGetInt(PREF_KEY_CHANNEL_LIGHTCOLOR, channelId, channel.lightColor);
+        channel.sound = prefsGetString(PREF_KEY_CHANNEL_SOUND, channelId, null);
+        channel.hasAudioAttributes = _prefs.contains(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId));
+        if (channel.hasAudioAttributes) {
+            channel.audioContentType = prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId, 0);
+            channel.audioFlags = prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS, channelId, 0);
+            channel.audioUsage = prefsGetInt(PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE, channelId, 0);
+        }
+        channel.audioStreamType = prefsGetInt(PREF_KEY_CHANNEL_AUDIOSTREAMTYPE, channelId, channel.audioStreamType);
+        channel.vibrationEnabled = prefsGetBoolean(PREF_KEY_CHANNEL_VIBRATIONENABLED, channelId, channel.vibrationEnabled);
+        channel.vibrationPattern = VibrationPatterns.decodeText(prefsGetString(PREF_KEY_CHANNEL_VIBRATION, channelId, null));
+        return channel;
+    }
+
+    @Override
+    public GroupRecord readGroup(String groupId) {
+        if (!_prefs.contains(makeKey(PREF_KEY_GROUP_NAME, groupId)))
+            return null;
+        GroupRecord group = new GroupRecord(groupId);
+        group.name = prefsGetString(PREF_KEY_GROUP_NAME, groupId, "Error");
+        group.description = prefsGetString(PREF_KEY_GROUP_DESCRIPTION, groupId, null);
+        group.enabled = prefsGetBoolean(PREF_KEY_GROUP_ENABLED, groupId, true);
+        return group;
+    }
+
+    @Override
+    public Map<String, Long> getChannelTombstones() {
+        return loadTombstones(PREF_KEY_CHANNEL_NAME, PREF_KEY_CHANNEL_DELETED, getChannelIds());
+    }
+
+    @Override
+    public Map<String, Long> getGroupTombstones() {
+        return loadTombstones(PREF_KEY_GROUP_NAME, PREF_KEY_GROUP_DELETED, getGroupIds());
+    }
+
+    // Every stored record has a name key, so the deleted ones are those with a name key but no id
+    private Map<String, Long> loadTombstones(String nameKey, String deletedKey, Set<String> existing) {
+        HashMap<String, Long> tombstones = new HashMap<>();
+        for (String key : _prefs.getAll().keySet()) {
+            String id = idFromKey(nameKey, key);
+            if (id != null && !existing.contains(id))
+                tombstones.put(id, prefsGetLong(deletedKey, id, 0));
+        }
+        return tombstones;
+    }
+
+    @Override
+    protected synchronized boolean write(PendingTransaction transaction, boolean sync) {
+        SharedPreferences.Editor editor = new RecordingEditor(_prefs.edit());
+        if (transaction.getNotificationsEnabled() != null)
+            editor.putBoolean(PREF_KEY_CHANNELS_ALL_ENABLED, transaction.getNotificationsEnabled());
+
+        if (!transaction.getChannels().isEmpty() || !transaction.getPurgedChannels().isEmpty()) {
+            // Never modify the set returned by getStringSet, and always write a new one
+            Set<String> channelIds = new ArraySet<>(getChannelIds());
+            for (Map.Entry<String, ChannelRecord> entry : transaction.getChannels().entrySet()) {
+                if (entry.getValue() == null) {
+                    channelIds.remove(entry.getKey());
+                    stampTombstone(editor, PREF_KEY_CHANNEL_NAME, PREF_KEY_CHANNEL_DELETED, entry.getKey(), transaction.getTime());
+                } else {
+                    putChannel(editor, entry.getValue());
+                    channelIds.add(entry.getKey());
+                }
+            }
+            for (String channelId : transaction.getPurgedChannels()) {
+                channelIds.remove(channelId);
+                for (String prefKey : CHANNEL_KEYS)
+                    editor.remove(makeKey(prefKey, channelId));
+            }
+            editor.putStringSet(PREF_KEY_CHANNELS_IDS, channelIds);
+        }
+
+        if (!transaction.getGroups().isEmpty() || !transaction.getPurgedGroups().isEmpty()) {
+            Set<String> groupIds = new ArraySet<>(getGroupIds());
+            for (Map.Entry<String, GroupRecord> entry : transaction.getGroups().entrySet()) {
+                if (entry.getValue() == null) {
+                    groupIds.remove(entry.getKey());
+                    stampTombstone(editor, PREF_KEY_GROUP_NAME, PREF_KEY_GROUP_DELETED, entry.getKey(), transaction.getTime());
+                } else {
+                    putGroup(editor, entry.getValue());
+                    groupIds.add(entry.getKey());
+                }
+            }
+            for (String groupId : transaction.getPurgedGroups()) {
+                groupIds.remove(groupId);
+                for (String prefKey : GROUP_KEYS)
+                    editor.remove(makeKey(prefKey, groupId));
+            }
+            editor.putStringSet(PREF_KEY_GROUPS_IDS, groupIds);
+        }
+
+        if (sync)
+            return editor.commit();
+        editor.apply();
+        return true;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key != null && isEcho(sharedPreferences, key))
+            return; // already reported when written
+        if (key == null || key.equals(PREF_KEY_CHANNELS_ALL_ENABLED) || key.equals(PREF_KEY_CHANNELS_IDS) || key.equals(PREF_KEY_GROUPS_IDS)) {
+            notifyStoreChanged();
+            return;
+        }
+        for (String prefKey : CHANNEL_KEYS) {
+            String channelId = idFromKey(prefKey, key);
+            if (channelId != null)
+                notifyChannelChanged(channelId);
+        }
+        for (String prefKey : GROUP_KEYS) {
+            String groupId = idFromKey(prefKey, key);
+            if (groupId != null)
+                notifyGroupChanged(groupId);
+        }
+    }
+
+    @Override
+    public void collectDiagnostics(Map<String, Object> out) {
+        Map<String, ?> all = _prefs.getAll();
+        Set<String> channelIds = getChannelIds();
+        Set<String> groupIds = getGroupIds();
+        int storedChannels = 0;
+        int storedGroups = 0;
+        int orphanedKeys = 0; // keys of deleted channels and groups
+        for (String key : all.keySet()) {
+            if (idFromKey(PREF_KEY_CHANNEL_NAME, key) != null)
+                ++storedChannels;
+            else if (idFromKey(PREF_KEY_GROUP_NAME, key) != null)
+                ++storedGroups;
+            String id = idOfKey(CHANNEL_KEYS, key);
+            if (id != null) {
+                if (!channelIds.contains(id))
+                    ++orphanedKeys;
+            } else if ((id = idOfKey(GROUP_KEYS, key)) != null && !groupIds.contains(id)) {
+                ++orphanedKeys;
+            }
+        }
+        if (_file != null) {
+            out.put("file", _file.getPath());
+            out.put("bytes", _file.length());
+        }
+        out.put("keys", all.size());
+        out.put("channels", channelIds.size());
+        out.put("groups", groupIds.size());
+        out.put("stored_channels", storedChannels);
+        out.put("stored_groups", storedGroups);
+        out.put("orphaned_channels", storedChannels - channelIds.size());
+        out.put("orphaned_groups", storedGroups - groupIds.size());
+        out.put("orphaned_keys", orphanedKeys);
+    }
+
+    // Returns whether the key holds what this store last wrote to it, and forgets that write
+    private boolean isEcho(SharedPreferences sharedPreferences, String key) {
+        Object written = _written.get(key);
+        if (written == null)
+            return false;
+        Object current;
+        try {
+            if (!sharedPreferences.contains(key))
+                current = REMOVED;
+            else if (written instanceof String)
+                current = sharedPreferences.getString(key, null);
+            else if (written instanceof Boolean)
+                current = sharedPreferences.getBoolean(key, false);
+            else if (written instanceof Integer)
+                current = sharedPreferences.getInt(key, 0);
+            else if (written instanceof Long)
+                current = sharedPreferences.getLong(key, 0);
+            else if (written instanceof Float)
+                current = sharedPreferences.getFloat(key, 0);
+            else if (written instanceof Set)
+                current = sharedPreferences.getStringSet(key, null);
+            else
+                return false;
+        } catch (ClassCastException e) {
+            current = null; // someone else wrote another type
+        }
+        // Forgotten either way, a write that changed nothing is never reported back
+        _written.remove(key, written);
+        return written.equals(current);
+    }
+
+    private static String idOfKey(String[] prefKeys, String key) {
+        for (String prefKey : prefKeys) {
+            String id = idFromKey(prefKey, key);
+            if (id != null)
+                return id;
+        }
+        return null;
+    }
+
+    // Keeps the first deletion time, so that deleting again doesn't extend the retention
+    private void stampTombstone(SharedPreferences.Editor editor, String nameKey, String deletedKey, String id, long time) {
+        if (_prefs.contains(makeKey(nameKey, id)) && !_prefs.contains(makeKey(deletedKey, id)))
+            editor.putLong(makeKey(deletedKey, id), time);
+    }
+
+    private static void putChannel(SharedPreferences.Editor editor, ChannelRecord channel) {
+        String channelId = channel.id;
+        editor.remove(makeKey(PREF_KEY_CHANNEL_DELETED, channelId));
+        editor.putString(makeKey(PREF_KEY_CHANNEL_NAME, channelId), channel.name);
+        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_ENABLED, channelId), channel.enabled);
+        editor.putString(makeKey(PREF_KEY_CHANNEL_IMPORTANCE, channelId), Integer.toString(channel.importance)); // we need it as string, as it's set as value in dropdown
+        editor.putString(makeKey(PREF_KEY_CHANNEL_DESCRIPTION, channelId), channel.description);
+        editor.putString(makeKey(PREF_KEY_CHANNEL_GROUP, channelId), channel.group);
+        editor.putInt(makeKey(PREF_KEY_CHANNEL_LOCKSCREENVISIBILITY, channelId), channel.lockscreenVisibility);
+        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_LIGHTS, channelId), channel.lights);
+        editor.putInt(makeKey(PREF_KEY_CHANNEL_LIGHTCOLOR, channelId), channel.lightColor);
+        editor.putString(makeKey(PREF_KEY_CHANNEL_SOUND, channelId), channel.sound);
+        if (channel.hasAudioAttributes) {
+            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId), channel.audioContentType);
+            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESFLAGS, channelId), channel.audioFlags);
+            editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESUSAGE, channelId), channel.audioUsage);
+        } else {
+            editor.remove(makeKey(PREF_KEY_CHANNEL_AUDIOATTRIBUTESCONTENTTYPE, channelId));
+        }
+        editor.putInt(makeKey(PREF_KEY_CHANNEL_AUDIOSTREAMTYPE, channelId), channel.audioStreamType);
+        editor.putBoolean(makeKey(PREF_KEY_CHANNEL_VIBRATIONENABLED, channelId), channel.vibrationEnabled);
+        editor.putString(makeKey(PREF_KEY_CHANNEL_VIBRATION, channelId), VibrationPatterns.encodeText(channel.vibrationPattern));
+    }
+
+    private static void putGroup(SharedPreferences.Editor editor, GroupRecord group) {
+        String groupId = group.id;
+        editor.remove(makeKey(PREF_KEY_GROUP_DELETED, groupId));
+        editor.putString(makeKey(PREF_KEY_GROUP_NAME, groupId), group.name);
+        editor.putString(makeKey(PREF_KEY_GROUP_DESCRIPTION, groupId), group.description);
+        editor.putBoolean(makeKey(PREF_KEY_GROUP_ENABLED, groupId), group.enabled);
+    }
+
+    // Notes every value written, so that its echo can be told from changes made by others
+    private final class RecordingEditor implements SharedPreferences.Editor {
+        private final SharedPreferences.Editor _editor;
+
+        RecordingEditor(SharedPreferences.Editor editor) {
+            _editor = editor;
+        }
+
+        private SharedPreferences.Editor record(String key, Object value) {
+            _written.put(key, value == null ? REMOVED : value); // a null value removes the key
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(String key, String value) {
+            _editor.putString(key, value);
+            return record(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(String key, Set<String> values) {
+            _editor.putStringSet(key, values);
+            return record(key, values);
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(String key, int value) {
+            _editor.putInt(key, value);
+            return record(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(String key, long value) {
+            _editor.putLong(key, value);
+            return record(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(String key, float value) {
+            _editor.putFloat(key, value);
+            return record(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(String key, boolean value) {
+            _editor.putBoolean(key, value);
+            return record(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(String key) {
+            _editor.remove(key);
+            return record(key, null);
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            _editor.clear(); // not used by the store, so a clear is always reported
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return _editor.commit();
+        }
+
+        @Override
+        public void apply() {
+            _editor.apply();
+        }
+    }
+
+    private Set<String> loadIds(String prefKey) {
+        Set<String> ids = _prefs.getStringSet(prefKey, null);
+        return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    // helper classes
+    private String prefsGetString(String prefs, String id, String defaultValue) {
+        return _prefs.getString(makeKey(prefs, id), defaultValue);
+    }
+
+    private boolean prefsGetBoolean(String prefs, String id, boolean defaultValue) {
+        return _prefs.getBoolean(makeKey(prefs, id), defaultValue);
+    }
+
+    private int prefsGetInt(String prefs, String id, int defaultValue) {
+        return _prefs.getInt(makeKey(prefs, id), defaultValue);
+    }
+
+    private long prefsGetLong(String prefs, String id, long defaultValue) {
+        return _prefs.getLong(makeKey(prefs, id), defaultValue);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelEdits;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import androidx.preference.PreferenceDataStore;
+
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNELS_ALL_ENABLED;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNEL_ENABLED;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNEL_IMPORTANCE;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNEL_LIGHTS;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNEL_SOUND;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_CHANNEL_VIBRATIONENABLED;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.PREF_KEY_GROUP_ENABLED;
+import static com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper.idFromKey;
+
+/**
+ * Lets the settings screens read and write the channel settings through the registry's
+ * {@link ChannelCatalog}, whatever store is in use. Keys are the same pref keys the screens
+ * always used.
+ * <p>
+ * Reads come from the catalog's memory. Writes are staged in the catalog as field-level
+ * {@link ChannelEdits}, so that the screen, the registry and the notifications posted see them at
+ * once. Only the store write is put off: the staged edits are written together
+ * {@value #COALESCE_DELAY_MS} ms after the first of them, or when the screen calls
+ * {@link #flush()}, so toggling several settings in a row makes a single store write. The write
+ * runs on a background thread and goes through the store's {@code apply}, so the main thread
+ * never waits on it. Used on the main thread only.
+ */
+class ChannelPreferenceDataStore extends PreferenceDataStore {
+    static final long COALESCE_DELAY_MS = 300;
+
+    private final ChannelCatalog _catalog;
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private boolean _flushPosted;
+
+    private static Executor sWriter;
+
+    private final Runnable _flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            _flushPosted = false;
+            flush();
+        }
+    };
+
+    ChannelPreferenceDataStore(ChannelCatalog catalog) {
+        _catalog = catalog;
+    }
+
+    /**
+     * Starts writing the staged edits to the store, without waiting for the write. Called when
+     * the screen goes away, so that they are not lost with the process.
+     */
+    void flush() {
+        if (_flushPosted) {
+            _handler.removeCallbacks(_flushRunnable);
+            _flushPosted = false;
+        }
+        final ChannelCatalog catalog = _catalog;
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                catalog.flushEdits(); // applies the transaction, so the file is written in the background too
+            }
+        });
+    }
+
+    // A single thread, so flushes run in the order they were made
+    private static synchronized Executor getWriter() {
+        if (sWriter == null) {
+            sWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ChannelEditWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWriter;
+    }
+
+    private void stage(ChannelEdits edits) {
+        _catalog.stageEdits(edits);
+        if (!_flushPosted) {
+            _flushPosted = true;
+            _handler.postDelayed(_flushRunnable, COALESCE_DELAY_MS);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        if (PREF_KEY_CHANNELS_ALL_ENABLED.equals(key))
+            return _catalog.isNotificationsEnabled();
+        String id;
+        if ((id = idFromKey(PREF_KEY_GROUP_ENABLED, key)) != null) {
+            GroupRecord group = readGroup(id);
+            return group == null ? defValue : group.enabled;
+        }
+        ChannelRecord channel;
+        if ((id = idFromKey(PREF_KEY_CHANNEL_ENABLED, key)) != null)
+            return (channel = readChannel(id)) == null ? defValue : channel.enabled;
+        if ((id = idFromKey(PREF_KEY_CHANNEL_VIBRATIONENABLED, key)) != null)
+            return (channel = readChannel(id)) == null ? defValue : channel.vibrationEnabled;
+        if ((id = idFromKey(PREF_KEY_CHANNEL_LIGHTS, key)) != null)
+            return (channel = readChannel(id)) == null ? defValue : channel.lights;
+        return defValue;
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        String id;
+        ChannelEdits edits = new ChannelEdits();
+        if (PREF_KEY_CHANNELS_ALL_ENABLED.equals(key))
+            edits.setNotificationsEnabled(value);
+        else if ((id = idFromKey(PREF_KEY_GROUP_ENABLED, key)) != null)
+            edits.setGroupEnabled(id, value);
+        else if ((id = idFromKey(PREF_KEY_CHANNEL_ENABLED, key)) != null)
+            edits.setChannelEnabled(id, value);
+        else if ((id = idFromKey(PREF_KEY_CHANNEL_VIBRATIONENABLED, key)) != null)
+            edits.setChannelVibrationEnabled(id, value);
+        else if ((id = idFromKey(PREF_KEY_CHANNEL_LIGHTS, key)) != null)
+            edits.setChannelLights(id, value);
+        else
+            return;
+        stage(edits);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String id;
+        ChannelRecord channel;
+        if ((id = idFromKey(PREF_KEY_CHANNEL_IMPORTANCE, key)) != null)
+            return (channel = readChannel(id)) == null ? defValue : Integer.toString(channel.importance); // as string, as it's set as value in dropdown
+        if ((id = idFromKey(PREF_KEY_CHANNEL_SOUND, key)) != null)
+            return (channel = readChannel(id)) == null || channel.sound == null ? defValue : channel.sound;
+        return defValue;
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        String id;
+        ChannelEdits edits = new ChannelEdits();
+        if ((id = idFromKey(PREF_KEY_CHANNEL_IMPORTANCE, key)) != null) {
+            if (value == null)
+                return;
+            edits.setChannelImportance(id, Integer.parseInt(value));
+        } else if ((id = idFromKey(PREF_KEY_CHANNEL_SOUND, key)) != null) {
+            edits.setChannelSound(id, value);
+        } else {
+            return;
+        }
+        stage(edits);
+    }
+
+    // The catalog only returns existing channels and groups, with their staged edits
+    private ChannelRecord readChannel(String channelId) {
+        return _catalog.getChannel(channelId);
+    }
+
+    private GroupRecord readGroup(String groupId) {
+        return _catalog.getGroup(groupId);
+    }
+}
@@ -19,17 +19,37 @@ package com.lionscribe.open.notificationchannelcompat.ui;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 
 import com.lionscribe.open.notificationchannelcompat.NotificationChannelCompat;
 import com.lionscribe.open.notificationchannelcompat.NotificationChannelGroupCompat;
 import com.lionscribe.open.notificationchannelcompat.NotificationChannelManagerHelper;
 import com.lionscribe.open.notificationchannelcompat.R;
+import com.lionscribe.open.notificationchannelcompat.core.ChannelCatalog;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
 import com.lionscribe.open.notificationchannelcompat.ui.widgets.MasterCheckBoxPreference;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import androidx.fragment.app.FragmentTransaction;
 import androidx.preference.Preference;
@@ -38,111 +58,517 @@ import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 import androidx.preference.PreferenceScreen;
 import androidx.preference.SwitchPreference;
+import androidx.tracing.Trace;
 
+/**
+ * Lists the channels by group. The groups and channels are read and sorted on a background
+ * thread, so opening the screen never waits for them, and are then added a batch at a time,
+ * the first group at once, so that the list shows before all of it is built.
+ * <p>
+ * The screen then follows the changes of the registry. Only the changed channels and groups
+ * have their preferences added, updated, moved or removed, and preferences are ordered by
+ * {@link NotificationChannelManagerHelper#getSortedNotificationChannels}, so a change never
+ * rebuilds the list.
+ * <p>
+ * A search box above the list hides the channels that don't match, see
+ * {@link NotificationChannelManagerHelper#searchNotificationChannelIds}, and the categories
+ * left without channels.
+ */
 public class PreferencesChannelsMainFragment extends PreferenceFragmentCompat {
+    static final int BATCH_SIZE = 40; // channels added to the screen per main thread message
+
+    // Orders of the categories on the screen, the groups are ORDER_GROUP and up in sorted order
+    private static final int ORDER_ALL = 0;
+    private static final int ORDER_GROUP = 1;
+    private static final int ORDER_OTHER = Integer.MAX_VALUE;
+    // Order of the group switch in its category, the channels are ORDER_CHANNEL and up in sorted order
+    private static final int ORDER_SWITCH = 0;
+    private static final int ORDER_CHANNEL = 1;
+
+    private static Executor sLoader;
+
+    NotificationChannelManagerHelper _notificationManagerHelper;
+    ChannelCatalog _catalog;
+    ChannelPreferenceDataStore _dataStore;
+    Context _contextThemeWrapper;
+    SwitchPreference _showNotificationsAll;
+    final Handler _handler = new Handler(Looper.getMainLooper());
+    Object _loadToken; // the current load, any other load is stale
+    boolean _loaded; // whether all loaded sections were added, so that changes can be applied
+    String _filter = ""; // the words searched for, empty for all channels
 
-    MasterCheckBoxPreference _openedChannelPref;
+    // What is on the screen, by id. The null key stands for the channels without group.
+    final HashMap<String, PreferenceCategory> _categories = new HashMap<>();
+    final HashMap<String, SwitchPreference> _groupSwitches = new HashMap<>();
+    final HashMap<String, MasterCheckBoxPreference> _channelPrefs = new HashMap<>();
+    final HashMap<String, String> _channelGroups = new HashMap<>(); // group of each listed channel
+
+    // Changes not yet applied, collected on the thread that made them
+    private final Object _changesLock = new Object();
+    private HashSet<String> _changedChannels = new HashSet<>(); // guarded by _changesLock
+    private HashSet<String> _changedGroups = new HashSet<>(); // guarded by _changesLock
+    private boolean _storeChanged; // guarded by _changesLock
+    private boolean _changesPosted; // guarded by _changesLock
+
+    private final ChannelStore.OnChangeListener _changeListener = new ChannelStore.OnChangeListener() {
+        @Override
+        public void onChannelChanged(String channelId) {
+            synchronized (_changesLock) {
+                _changedChannels.add(channelId);
+                postChanges();
+            }
+        }
+
+        @Override
+        public void onGroupChanged(String groupId) {
+            synchronized (_changesLock) {
+                _changedGroups.add(groupId);
+                postChanges();
+            }
+        }
+
+        @Override
+        public void onStoreChanged() {
+            synchronized (_changesLock) {
+                _storeChanged = true;
+                postChanges();
+            }
+        }
+    };
+
+    private final Runnable _applyChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyChanges();
+        }
+    };
 
     @Override
     public void onCreatePreferences(Bundle savedInstance, String rootPreferenceKey) {
+        Trace.beginSection("PreferencesChannelsMainFragment.onCreatePreferences");
+        try {
+            createPreferences();
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View list = super.onCreateView(inflater, container, savedInstanceState);
+        Context context = inflater.getContext();
+
+        EditText searchBox = new EditText(context);
+        searchBox.setHint(R.string.notification_channels_search_hint);
+        searchBox.setSingleLine(true);
+        searchBox.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        searchBox.setImeOptions(EditorInfo.IME_ACTION_SEARCH);
+        searchBox.setText(_filter); // the view is made again when coming back from a channel
+        searchBox.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                setFilter(s.toString());
+            }
+        });
+
+        LinearLayout layout = new LinearLayout(context);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(searchBox, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        layout.addView(list, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 0, 1));
+        return layout;
+    }
+
+    private void createPreferences() {
         Context activityContext = getActivity();
 
+        _notificationManagerHelper = new NotificationChannelManagerHelper(getContext(), (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE));
+        _catalog = _notificationManagerHelper.getChannelCatalog();
+
         PreferenceManager preferenceManager = getPreferenceManager();
-        preferenceManager.setSharedPreferencesName(NotificationChannelManagerHelper.SHARED_PREFERENCE_NAME);
+        _dataStore = new ChannelPreferenceDataStore(_catalog);
+        preferenceManager.setPreferenceDataStore(_dataStore);
         PreferenceScreen preferenceScreen = preferenceManager.createPreferenceScreen(activityContext);
+        preferenceScreen.setOrderingAsAdded(false);
         setPreferenceScreen(preferenceScreen);
 
-        ContextThemeWrapper contextThemeWrapper = new ContextThemeWrapper(activityContext, androidx.preference.R.style.PreferenceThemeOverlay);
+        _contextThemeWrapper = new ContextThemeWrapper(activityContext, androidx.preference.R.style.PreferenceThemeOverlay);
 
         // We instance each Preference using our ContextThemeWrapper object
-        PreferenceCategory preferenceCategory = new PreferenceCategory(contextThemeWrapper);
+        PreferenceCategory preferenceCategory = new PreferenceCategory(_contextThemeWrapper);
+        preferenceCategory.setOrder(ORDER_ALL);
         getPreferenceScreen().addPreference(preferenceCategory);
 
-        SwitchPreference showNotificationsAll = new SwitchPreference(contextThemeWrapper);
-        showNotificationsAll.setTitle(R.string.app_notifications_switch_label);
-        showNotificationsAll.setKey(NotificationChannelManagerHelper.PREF_KEY_CHANNELS_ALL_ENABLED);
-        showNotificationsAll.setDefaultValue(true);
+        _showNotificationsAll = new SwitchPreference(_contextThemeWrapper);
+        _showNotificationsAll.setTitle(R.string.app_notifications_switch_label);
+        _showNotificationsAll.setKey(NotificationChannelManagerHelper.PREF_KEY_CHANNELS_ALL_ENABLED);
+        _showNotificationsAll.setDefaultValue(true);
 
-        preferenceCategory.addPreference(showNotificationsAll);
+        preferenceCategory.addPreference(_showNotificationsAll);
 
-        NotificationChannelManagerHelper notificationManagerHelper = new NotificationChannelManagerHelper(getContext(), (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE));
+        // Listen before loading, so that no change made while loading goes unnoticed
+        _catalog.addOnChangeListener(_changeListener);
+        loadChannels(_notificationManagerHelper);
+    }
 
-        List<NotificationChannelGroupCompat> groups = notificationManagerHelper.getNotificationChannelGroups();
-        Collections.sort(groups, new Comparator<NotificationChannelGroupCompat>() {
-            public int compare(NotificationChannelGroupCompat obj1, NotificationChannelGroupCompat obj2) {
-                return obj1.getName().toString().compareToIgnoreCase(obj2.getName().toString()); // To compare string values
+    private void loadChannels(final NotificationChannelManagerHelper notificationManagerHelper) {
+        final Object token = new Object();
+        _loadToken = token;
+        getLoader().execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<ChannelSection> sections;
+                Trace.beginSection("PreferencesChannelsMainFragment.loadChannels");
+                try {
+                    sections = loadSections(notificationManagerHelper);
+                } finally {
+                    Trace.endSection();
+                }
+                _handler.post(new SectionAdder(token, sections));
             }
         });
+    }
 
-        List<NotificationChannelCompat> channels = notificationManagerHelper.getNotificationChannels();
-        Collections.sort(channels, new Comparator<NotificationChannelCompat>() {
-            public int compare(NotificationChannelCompat obj1, NotificationChannelCompat obj2) {
-                return obj1.getName().toString().compareToIgnoreCase(obj2.getName().toString()); // To compare string values
+    // Reads and sorts the groups and channels. Runs on the loader thread.
+    static List<ChannelSection> loadSections(NotificationChannelManagerHelper notificationManagerHelper) {
+        notificationManagerHelper.isNotificationsEnabled(); // read into memory here, rather than by the switch on the main thread
+
+        List<NotificationChannelGroupCompat> groups = notificationManagerHelper.getSortedNotificationChannelGroups();
+        List<NotificationChannelCompat> channels = notificationManagerHelper.getSortedNotificationChannels();
+
+        // Bucket the sorted channels by group in one pass, rather than scanning all channels for each group
+        HashMap<String, List<NotificationChannelCompat>> channelsByGroup = new HashMap<>();
+        for (NotificationChannelCompat channel : channels) {
+            List<NotificationChannelCompat> groupChannels = channelsByGroup.get(channel.getGroup());
+            if (groupChannels == null) {
+                groupChannels = new ArrayList<>();
+                channelsByGroup.put(channel.getGroup(), groupChannels);
             }
-        });
+            groupChannels.add(channel);
+        }
 
+        // Groups in order, then the channels without group, leaving out groups without channels
+        List<ChannelSection> sections = new ArrayList<>();
         for (int g = 0; g <= groups.size(); ++g) {
             NotificationChannelGroupCompat group = g < groups.size() ? groups.get(g) : null;
-            PreferenceCategory preferenceGroupCategory = null;
-            for (NotificationChannelCompat channel : channels) {
-                if (group == null) {
-                    if (channel.getGroup() != null)
-                        continue;
-                } else if (!group.getId().equals(channel.getGroup())) {
-                    continue;
+            List<NotificationChannelCompat> groupChannels = channelsByGroup.get(group == null ? null : group.getId());
+            if (groupChannels != null)
+                sections.add(new ChannelSection(group, groupChannels));
+        }
+        return sections;
+    }
+
+    private static synchronized Executor getLoader() {
+        if (sLoader == null) {
+            sLoader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ChannelListLoader");
+                    thread.setDaemon(true);
+                    return thread;
                 }
-                // There is a matching channel, so create preference category for it
-                if (preferenceGroupCategory == null) {
-                    preferenceGroupCategory = new PreferenceCategory(contextThemeWrapper);
-                    preferenceGroupCategory.setTitle(group == null ? getString(R.string.notification_channels_other) : group.getName());
-                    getPreferenceScreen().addPreference(preferenceGroupCategory);
-                    preferenceGroupCategory.setDependency(NotificationChannelManagerHelper.PREF_KEY_CHANNELS_ALL_ENABLED);
-
-                    if (group != null) {
-                        SwitchPreference showNotificationsGroup = new SwitchPreference(contextThemeWrapper);
-                        showNotificationsGroup.setTitle(R.string.app_notifications_switch_label);
-                        showNotificationsGroup.setKey(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_GROUP_ENABLED, group.getId()));
-                        showNotificationsGroup.setDefaultValue(true);
-                        preferenceGroupCategory.addPreference(showNotificationsGroup);
-                    }
+            });
+        }
+        return sLoader;
+    }
+
+    PreferenceCategory addGroupCategory(NotificationChannelGroupCompat group, int order) {
+        PreferenceCategory preferenceGroupCategory = new PreferenceCategory(_contextThemeWrapper);
+        preferenceGroupCategory.setTitle(group == null ? getString(R.string.notification_channels_other) : group.getName());
+        preferenceGroupCategory.setOrder(group == null ? ORDER_OTHER : order);
+        preferenceGroupCategory.setOrderingAsAdded(false); // the group switch first, then channels by order
+        getPreferenceScreen().addPreference(preferenceGroupCategory);
+        preferenceGroupCategory.setDependency(NotificationChannelManagerHelper.PREF_KEY_CHANNELS_ALL_ENABLED);
+
+        if (group != null) {
+            SwitchPreference showNotificationsGroup = new SwitchPreference(_contextThemeWrapper);
+            showNotificationsGroup.setTitle(R.string.app_notifications_switch_label);
+            showNotificationsGroup.setKey(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_GROUP_ENABLED, group.getId()));
+            showNotificationsGroup.setDefaultValue(true);
+            showNotificationsGroup.setOrder(ORDER_SWITCH);
+            preferenceGroupCategory.addPreference(showNotificationsGroup);
+            _groupSwitches.put(group.getId(), showNotificationsGroup);
+        }
+        _categories.put(group == null ? null : group.getId(), preferenceGroupCategory);
+        return preferenceGroupCategory;
+    }
+
+    void addChannel(PreferenceCategory preferenceGroupCategory, NotificationChannelGroupCompat group, NotificationChannelCompat channel, int order) {
+        final String channelId = channel.getId();
+        MasterCheckBoxPreference channelPref = new MasterCheckBoxPreference(_contextThemeWrapper);
+        channelPref.setTitle(channel.getName());
+        channelPref.setOrder(order);
+        channelPref.setKey(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_CHANNEL_ENABLED, channelId));
+        channelPref.setDefaultValue(true);
+
+        channelPref.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                getActivity().getSupportFragmentManager()
+                        .beginTransaction()
+                        //.setCustomAnimations(android.R.anim.slide_in_left, android.R.anim. slide_out_right, android.R.anim.slide_in_left, android.R.anim.slide_out_right)
+                        .setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
+                        .replace(R.id.settings_container, PreferencesChannelsSubFragment.newInstance(channelId), PreferencesChannelsSubFragment.FRAGMENT_TAG)
+                        .addToBackStack(null)
+                        .commit();
+                return true;
+            }
+        });
+        preferenceGroupCategory.addPreference(channelPref);
+        if (group != null)
+            channelPref.setDependency(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_GROUP_ENABLED, group.getId()));
+        _channelPrefs.put(channelId, channelPref);
+        _channelGroups.put(channelId, group == null ? null : group.getId());
+    }
+
+    private void removeChannel(String channelId) {
+        MasterCheckBoxPreference channelPref = _channelPrefs.remove(channelId);
+        String groupId = _channelGroups.remove(channelId);
+        PreferenceCategory category = _categories.get(groupId);
+        if (channelPref == null || category == null)
+            return;
+        category.removePreference(channelPref);
+        // A category is only shown while it has channels
+        if (category.getPreferenceCount() == (groupId == null ? 0 : 1)) {
+            getPreferenceScreen().removePreference(category);
+            _categories.remove(groupId);
+            _groupSwitches.remove(groupId);
+        }
+    }
+
+    // Called with _changesLock held
+    void postChanges() {
+        if (!_changesPosted) {
+            _changesPosted = true;
+            _handler.post(_applyChangesRunnable);
+        }
+    }
+
+    // Brings the changed channels and groups on the screen up to date
+    void applyChanges() {
+        HashSet<String> changedChannels;
+        HashSet<String> changedGroups;
+        boolean storeChanged;
+        synchronized (_changesLock) {
+            _changesPosted = false;
+            if (!_loaded || _catalog == null)
+                return; // kept for when the list is loaded
+            changedChannels = _changedChannels;
+            changedGroups = _changedGroups;
+            storeChanged = _storeChanged;
+            _changedChannels = new HashSet<>();
+            _changedGroups = new HashSet<>();
+            _storeChanged = false;
+        }
+        if (changedChannels.isEmpty() && changedGroups.isEmpty() && !storeChanged)
+            return;
+        if (storeChanged) {
+            // Anything may have changed, so every channel on the screen and in the catalog is
+            // brought up to date, which adds the new ones and takes out the ones that are gone
+            changedChannels.addAll(_channelPrefs.keySet());
+            changedChannels.addAll(_catalog.getChannelIds());
+            for (String groupId : _categories.keySet()) {
+                if (groupId != null)
+                    changedGroups.add(groupId);
+            }
+        }
+        boolean reorder = false; // whether preferences were added or renamed
+        Trace.beginSection("PreferencesChannelsMainFragment.applyChanges");
+        try {
+            if (storeChanged)
+                _showNotificationsAll.setChecked(_dataStore.getBoolean(_showNotificationsAll.getKey(), true));
+
+            for (String groupId : changedGroups) {
+                PreferenceCategory category = _categories.get(groupId);
+                NotificationChannelGroupCompat group = _notificationManagerHelper.getNotificationChannelGroup(groupId);
+                if (category == null || group == null)
+                    continue; // not shown, or deleted, and then its channels go with it
+                if (!TextUtils.equals(category.getTitle(), group.getName())) {
+                    category.setTitle(group.getName());
+                    reorder = true;
                 }
+                SwitchPreference groupSwitch = _groupSwitches.get(groupId);
+                if (groupSwitch != null)
+                    groupSwitch.setChecked(_dataStore.getBoolean(groupSwitch.getKey(), true));
+            }
 
-                final String channelId = channel.getId();
-                MasterCheckBoxPreference channelPref = new MasterCheckBoxPreference(contextThemeWrapper);
-                channelPref.setTitle(channel.getName());
-                channelPref.setKey(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_CHANNEL_ENABLED, channelId));
-                channelPref.setDefaultValue(true);
-
-                channelPref.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
-                    @Override
-                    public boolean onPreferenceClick(Preference preference) {
-                        getActivity().getSupportFragmentManager()
-                                .beginTransaction()
-                                //.setCustomAnimations(android.R.anim.slide_in_left, android.R.anim. slide_out_right, android.R.anim.slide_in_left, android.R.anim.slide_out_right)
-                                .setTransition(FragmentTransaction.TRANSIT_FRAGMENT_OPEN)
-                                .replace(R.id.settings_container, PreferencesChannelsSubFragment.newInstance(channelId), PreferencesChannelsSubFragment.FRAGMENT_TAG)
-                                .addToBackStack(null)
-                                .commit();
-                        _openedChannelPref = (MasterCheckBoxPreference) preference;
-                        return true;
+            for (String channelId : changedChannels) {
+                NotificationChannelCompat channel = _notificationManagerHelper.getNotificationChannel(channelId);
+                NotificationChannelGroupCompat group = channel == null || channel.getGroup() == null ? null : _notificationManagerHelper.getNotificationChannelGroup(channel.getGroup());
+                if (channel != null && channel.getGroup() != null && group == null)
+                    channel = null; // its group is gone, so it isn't listed, like when the list is loaded
+                MasterCheckBoxPreference channelPref = _channelPrefs.get(channelId);
+                // Gone or moved to another group, so taken out, and added again where it now belongs
+                if (channelPref != null && (channel == null || !TextUtils.equals(_channelGroups.get(channelId), channel.getGroup()))) {
+                    removeChannel(channelId);
+                    channelPref = null;
+                }
+                if (channel == null)
+                    continue;
+                if (channelPref == null) {
+                    PreferenceCategory category = _categories.get(channel.getGroup());
+                    if (category == null)
+                        category = addGroupCategory(group, ORDER_GROUP);
+                    addChannel(category, group, channel, ORDER_CHANNEL);
+                    reorder = true;
+                } else {
+                    if (!TextUtils.equals(channelPref.getTitle(), channel.getName())) {
+                        channelPref.setTitle(channel.getName());
+                        reorder = true;
                     }
-                });
-                preferenceGroupCategory.addPreference(channelPref);
-                if (group != null)
-                    channelPref.setDependency(NotificationChannelManagerHelper.makeKey(NotificationChannelManagerHelper.PREF_KEY_GROUP_ENABLED, group.getId()));
+                    channelPref.setChecked(_dataStore.getBoolean(channelPref.getKey(), true));
+                }
+            }
+            if (reorder)
+                reorder();
+        } finally {
+            Trace.endSection();
+        }
+        if (!_filter.isEmpty())
+            applyFilter(); // the changes may have made channels match, or stop matching
+    }
+
+    // Orders the categories and channels on the screen by the sorted groups and channels. Only
+    // the preferences whose place changed are touched, the rest keep their order.
+    void reorder() {
+        int groupOrder = ORDER_GROUP;
+        for (NotificationChannelGroupCompat group : _notificationManagerHelper.getSortedNotificationChannelGroups()) {
+            PreferenceCategory category = _categories.get(group.getId());
+            if (category != null)
+                category.setOrder(groupOrder++); // no-op if unchanged
+        }
+        HashMap<String, Integer> channelOrders = new HashMap<>(); // next order in each category
+        for (NotificationChannelCompat channel : _notificationManagerHelper.getSortedNotificationChannels()) {
+            MasterCheckBoxPreference channelPref = _channelPrefs.get(channel.getId());
+            if (channelPref == null)
+                continue;
+            String groupId = _channelGroups.get(channel.getId());
+            Integer order = channelOrders.get(groupId);
+            if (order == null)
+                order = ORDER_CHANNEL;
+            channelPref.setOrder(order);
+            channelOrders.put(groupId, order + 1);
+        }
+    }
+
+    void setFilter(String filter) {
+        filter = filter.trim();
+        if (filter.equals(_filter))
+            return;
+        _filter = filter;
+        applyFilter();
+    }
+
+    // Shows only the channels that match the filter, and the categories that still have channels
+    void applyFilter() {
+        Trace.beginSection("PreferencesChannelsMainFragment.applyFilter");
+        try {
+            // The search index is built by the first search, so opening the screen without searching never pays for it
+            Set<String> matches = _filter.isEmpty() || _notificationManagerHelper == null ? null : _notificationManagerHelper.searchNotificationChannelIds(_filter);
+            HashSet<String> shownGroups = new HashSet<>(); // the null group for the channels without group
+            for (Map.Entry<String, MasterCheckBoxPreference> entry : _channelPrefs.entrySet()) {
+                boolean visible = matches == null || matches.contains(entry.getKey());
+                if (entry.getValue().isVisible() != visible)
+                    entry.getValue().setVisible(visible);
+                if (visible)
+                    shownGroups.add(_channelGroups.get(entry.getKey()));
             }
+            for (Map.Entry<String, PreferenceCategory> entry : _categories.entrySet()) {
+                boolean visible = shownGroups.contains(entry.getKey());
+                if (entry.getValue().isVisible() != visible)
+                    entry.getValue().setVisible(visible);
+            }
+        } finally {
+            Trace.endSection();
         }
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-        if (_openedChannelPref != null) {
-            _openedChannelPref.setChecked(getPreferenceManager().getSharedPreferences().getBoolean(_openedChannelPref.getKey(), true));
-            _openedChannelPref = null;
+    public void onPause() {
+        super.onPause();
+        // Everyone sees the staged edits already, this only makes sure they aren't lost with the process
+        if (_dataStore != null)
+            _dataStore.flush();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        _loadToken = null; // drops a load still running, and the batches not yet added
+        if (_catalog != null)
+            _catalog.removeOnChangeListener(_changeListener);
+        _handler.removeCallbacks(_applyChangesRunnable);
+    }
+
+    static final class ChannelSection {
+        final NotificationChannelGroupCompat _group; // null for the channels without group
+        final List<NotificationChannelCompat> _channels;
+
+        ChannelSection(NotificationChannelGroupCompat group, List<NotificationChannelCompat> channels) {
+            _group = group;
+            _channels = channels;
         }
     }
-}
 
+    // Adds the loaded sections to the screen, a batch per main thread message
+    final class SectionAdder implements Runnable {
+        private final Object _token;
+        private final List<ChannelSection> _sections;
+        private int _sectionIndex;
+        private int _channelIndex;
+        private PreferenceCategory _category; // of the current section, once added
 
+        SectionAdder(Object token, List<ChannelSection> sections) {
+            _token = token;
+            _sections = sections;
+        }
 
+        @Override
+        public void run() {
+            if (_loadToken != _token || getPreferenceScreen() == null)
+                return;
+            Trace.beginSection("PreferencesChannelsMainFragment.addBatch");
+            try {
+                // The first section goes in whole, so the screen shows a full group right away
+                int budget = _sectionIndex == 0 && _channelIndex == 0 ? Integer.MAX_VALUE : BATCH_SIZE;
+                while (_sectionIndex < _sections.size() && budget > 0) {
+                    ChannelSection section = _sections.get(_sectionIndex);
+                    if (_category == null)
+                        _category = addGroupCategory(section._group, ORDER_GROUP + _sectionIndex);
+                    while (_channelIndex < section._channels.size() && budget > 0) {
+                        addChannel(_category, section._group, section._channels.get(_channelIndex), ORDER_CHANNEL + _channelIndex);
+                        ++_channelIndex;
+                        --budget;
+                    }
+                    if (_channelIndex == section._channels.size()) {
+                        ++_sectionIndex;
+                        _channelIndex = 0;
+                        _category = null;
+                        if (_sectionIndex == 1)
+                            break; // the first section is a batch of its own
+                    }
+                }
+            } finally {
+                Trace.endSection();
+            }
+            if (!_filter.isEmpty())
+                applyFilter();
+            if (_sectionIndex < _sections.size()) {
+                _handler.post(this);
+                return;
+            }
+            // Now apply what changed while loading, the load may have missed some of it
+            synchronized (_changesLock) {
+                _loaded = true;
+                postChanges();
+            }
+        }
+    }
+}
@@ -38,6 +38,7 @@ import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 import androidx.preference.PreferenceScreen;
 import androidx.preference.SwitchPreference;
+import androidx.tracing.Trace;
 
 public class PreferencesChannelsSubFragment extends PreferenceFragmentCompat {
     static final String FRAGMENT_TAG = "ChannelsSubFragment";
@@ -45,6 +46,7 @@ public class PreferencesChannelsSubFragment extends PreferenceFragmentCompat {
 
     SoundTonePreference _soundTonePreference;
     PreferenceCategory _preferenceDetailsCategory;
+    ChannelPreferenceDataStore _dataStore;
 
     public static PreferencesChannelsSubFragment newInstance(String channelId) {
         PreferencesChannelsSubFragment myFragment = new PreferencesChannelsSubFragment();
@@ -58,6 +60,15 @@ public class PreferencesChannelsSubFragment extends PreferenceFragmentCompat {
 
     @Override
     public void onCreatePreferences(Bundle savedInstance, String rootPreferenceKey) {
+        Trace.beginSection("PreferencesChannelsSubFragment.onCreatePreferences");
+        try {
+            createPreferences();
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void createPreferences() {
         Context activityContext = getActivity();
 
         final String channelId = getArguments().getString("channelId", null);
@@ -70,7 +81,8 @@ public class PreferencesChannelsSubFragment extends PreferenceFragmentCompat {
             return;
 
         PreferenceManager preferenceManager = getPreferenceManager();
-        preferenceManager.setSharedPreferencesName(NotificationChannelManagerHelper.SHARED_PREFERENCE_NAME);
+        _dataStore = new ChannelPreferenceDataStore(notificationManagerHelper.getChannelCatalog());
+        preferenceManager.setPreferenceDataStore(_dataStore);
         PreferenceScreen preferenceScreen = preferenceManager.createPreferenceScreen(activityContext);
         setPreferenceScreen(preferenceScreen);
 
@@ -160,6 +172,14 @@ public class PreferencesChannelsSubFragment extends PreferenceFragmentCompat {
         infoCategory.addPreference(info);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Everyone sees the staged edits already, this only makes sure they aren't lost with the process
+        if (_dataStore != null)
+            _dataStore.flush();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (requestCode == SoundTonePreference.REQUEST_CODE_ALERT_RINGTONE) {
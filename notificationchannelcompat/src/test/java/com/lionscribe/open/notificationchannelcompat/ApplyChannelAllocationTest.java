@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+
+import com.lionscribe.open.notificationchannelcompat.testing.AllocationMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Pins the allocation budget of the pre-Oreo posting path. A warm applyChannel must not allocate
+ * at all, so that bursts of notifications cause no GC on low-end devices.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ApplyChannelAllocationTest {
+    private static final String CHANNEL_ID = "channel_one_home";
+    private static final String HEADS_UP_CHANNEL_ID = "channel_heads_up";
+    private static final String GROUP_ID = "group_home";
+
+    private Context _context;
+    private NotificationChannelManagerHelper _helper;
+    private final Notification _notification = new Notification();
+    private int _sink;
+
+    @Before
+    public void setUp() {
+        assumeTrue(AllocationMeter.isSupported());
+        NotificationChannelManagerHelper.setChannelStore(null); // fresh registry for this context
+        _context = ApplicationProvider.getApplicationContext();
+        _helper = new NotificationChannelManagerHelper(_context, (NotificationManager) _context.getSystemService(Context.NOTIFICATION_SERVICE));
+        _helper.createNotificationChannelGroup(new NotificationChannelGroupCompat(GROUP_ID, "Home"));
+
+        NotificationChannelCompat channel = new NotificationChannelCompat(CHANNEL_ID, "Channel One", NotificationManager.IMPORTANCE_DEFAULT);
+        channel.setGroup(GROUP_ID);
+        channel.enableVibration(true);
+        channel.setVibrationPattern(new long[]{0, 250, 250, 250});
+        channel.enableLights(true);
+        _helper.createNotificationChannel(channel);
+
+        // Silent high importance channel, which takes the empty vibrate pattern for heads-up
+        NotificationChannelCompat headsUp = new NotificationChannelCompat(HEADS_UP_CHANNEL_ID, "Heads Up", NotificationManager.IMPORTANCE_HIGH);
+        headsUp.setSound(null);
+        _helper.createNotificationChannel(headsUp);
+    }
+
+    @Test
+    public void warmApplyChannelDoesNotAllocate() {
+        assertTrue(NotificationChannelCompat.applyChannel(_context, _notification, CHANNEL_ID));
+        AllocationMeter.assertAllocatesAtMost("applyChannel", 0, new Runnable() {
+            @Override
+            public void run() {
+                if (NotificationChannelCompat.applyChannel(_context, _notification, CHANNEL_ID))
+                    _sink++;
+            }
+        });
+    }
+
+    @Test
+    public void warmHeadsUpApplyChannelDoesNotAllocate() {
+        assertTrue(NotificationChannelCompat.applyChannel(_context, _notification, HEADS_UP_CHANNEL_ID));
+        AllocationMeter.assertAllocatesAtMost("applyChannel of heads-up channel", 0, new Runnable() {
+            @Override
+            public void run() {
+                if (NotificationChannelCompat.applyChannel(_context, _notification, HEADS_UP_CHANNEL_ID))
+                    _sink++;
+            }
+        });
+    }
+
+    @Test
+    public void getNotificationChannelAllocatesOnlyTheCopy() {
+        final NotificationChannelCompat cached = NotificationChannelRegistry.getInstance(_context).getChannel(CHANNEL_ID);
+        long copyBytes = AllocationMeter.bytesPerCall(new Runnable() {
+            @Override
+            public void run() {
+                _sink += new NotificationChannelCompat(cached).getImportance();
+            }
+        });
+        AllocationMeter.assertAllocatesAtMost("getNotificationChannel", copyBytes, new Runnable() {
+            @Override
+            public void run() {
+                _sink += _helper.getNotificationChannel(CHANNEL_ID).getImportance();
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.app.Notification;
+import android.content.Context;
+import android.os.Build;
+
+import com.lionscribe.open.notificationchannelcompat.store.BinaryFileChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelRecord;
+import com.lionscribe.open.notificationchannelcompat.store.ChannelStore;
+import com.lionscribe.open.notificationchannelcompat.store.GroupRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that applyChannel after a cold start is served from the mapped index, without reading
+ * the whole store file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = Build.VERSION_CODES.LOLLIPOP)
+public class ColdApplyChannelTest {
+    private static final int CHANNEL_COUNT = 100;
+    private static final String GROUP_ID = "group_home";
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private Context _context;
+    private File _file;
+
+    @Before
+    public void setUp() {
+        _context = ApplicationProvider.getApplicationContext();
+        _file = new File(_folder.getRoot(), "channels.nccs");
+        ChannelStore.Transaction transaction = new BinaryFileChannelStore(_file, true).beginTransaction();
+        GroupRecord group = new GroupRecord(GROUP_ID);
+        group.name = "Home";
+        transaction.putGroup(group);
+        for (int i = 0; i < CHANNEL_COUNT; ++i) {
+            ChannelRecord channel = new ChannelRecord("channel_" + i);
+            channel.name = "Channel " + i;
+            channel.group = i % 2 == 0 ? GROUP_ID : null;
+            transaction.putChannel(channel);
+        }
+        assertTrue(transaction.commit());
+    }
+
+    @After
+    public void tearDown() {
+        NotificationChannelManagerHelper.setChannelStore(null);
+    }
+
+    @Test
+    public void coldApplyChannelDoesNotLoadTheStore() {
+        BinaryFileChannelStore store = new BinaryFileChannelStore(_file, true);
+        NotificationChannelManagerHelper.setChannelStore(store);
+
+        assertTrue(NotificationChannelCompat.applyChannel(_context, new Notification(), "channel_10"));
+        assertTrue(NotificationChannelCompat.applyChannel(_context, new Notification(), "channel_10"));
+        assertTrue(NotificationChannelCompat.applyChannel(_context, new Notification(), "channel_11"));
+
+        Map<String, Object> diagnostics = new HashMap<>();
+        store.collectDiagnostics(diagnostics); // takes the state before it reads the store itself
+        assertEquals("mapped", diagnostics.get("index"));
+        assertEquals(false, diagnostics.get("loaded"));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019 Lionscribe Software LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.lionscribe.open.notificationchannelcompat;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.core.app.NotificationCompat;
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * End to end posting benchmark, running the pipeline of the example app's doNotify: build the
+ * notification, applyChannel, and notify. Runs on a pre-Oreo SDK, where the library emulates
+ * the channels, and on Oreo, where it defers to the system.
+ * <p>
+ * Prints notifications per second, and p50/p99 latency. The number of measured notifications
+ * can be set with -Dbenchmark.iterations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.LOLLIPOP, Build.VERSION_CODES.O})
+public class PostingThroughputBenchmarkTest {
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 10000);
+
+    private static final String[] CHANNEL_IDS = {"channel_one_home", "channel_two_home", "channel_three", "channel_one_work", "channel_two_work"};
+    private static final int[] CHANNEL_GROUPS = {0, 0, -1, 1, 1}; // Channel Three is in no group
+    private static final String[] GROUP_IDS = {"group_home", "group_work"};
+
+    private Context _context;
+    private NotificationManager _notificationManager;
+
+    @Before
+    public void setUp() {
+        NotificationChannelManagerHelper.setChannelStore(null); // fresh registry for this context
+        _context = ApplicationProvider.getApplicationContext();
+        _notificationManager = (NotificationManager) _context.getSystemService(Context.NOTIFICATION_SERVICE);
+        NotificationChannelManagerHelper helper = new NotificationChannelManagerHelper(_context, _notificationManager);
+        for (String groupId : GROUP_IDS)
+            helper.createNotificationChannelGroup(new NotificationChannelGroupCompat(groupId, groupId));
+        for (int i = 0; i < CHANNEL_IDS.length; ++i) {
+            NotificationChannelCompat channel = new NotificationChannelCompat(CHANNEL_IDS[i], CHANNEL_IDS[i], NotificationManager.IMPORTANCE_DEFAULT);
+            if (CHANNEL_GROUPS[i] >= 0)
+                channel.setGroup(GROUP_IDS[CHANNEL_GROUPS[i]]);
+            helper.createNotificationChannel(channel);
+        }
+    }
+
+    @Test
+    public void postingThroughput() {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+            assertTrue(doNotify(i));
+
+        long[] latencies = new long[ITERATIONS];
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            long before = System.nanoTime();
+            boolean posted = doNotify(i);
+            latencies[i] = System.nanoTime() - before;
+            assertTrue(posted);
+        }
+        long total = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.US, "PostingThroughput sdk=%d: %.0f notifications/s, p50=%.1fus, p99=%.1fus (%d notifications)",
+                Build.VERSION.SDK_INT, ITERATIONS * 1e9 / total,
+                percentile(latencies, 50) / 1e3, percentile(latencies, 99) / 1e3, ITERATIONS));
+
+        // One notification is kept per channel, as ids repeat
+        assertEquals(CHANNEL_IDS.length, shadowOf(_notificationManager).size());
+    }
+
+    private boolean doNotify(int i) {
+        int index = i % CHANNEL_IDS.length;
+        Notification notification = new NotificationCompat.Builder(_context, CHANNEL_IDS[index])
+                .setSmallIcon(android.R.drawable.stat_notify_chat)
+                .setContentTitle(CHANNEL_IDS[index])
+                .setContentText("Notification " + i)
+                .build();
+
+        if (!NotificationChannelCompat.applyChannel(_context, notification, CHANNEL_IDS[index]))
+            return false;
+        _notificationManager.notify(index, notification);
+        return true;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}